@@ -34,6 +34,7 @@ import java.util.Set;
 import javax.swing.*;
 
 import triangulation.*;
+import triangulation.delaunay.LocalFeatureSize;
 import triangulation.delaunay.algorithms.Algorithms;
 import triangulation.delaunay.algorithms.DelaunayAlgorithm;
 import triangulation.delaunay.refineAlgorithms.DelaunayRefineAlgorithm;
@@ -79,6 +80,7 @@ public class DelaunayAp extends javax.swing.JApplet
 
     private JComboBox<RefineAlgorithms> refinementSelector = new JComboBox<RefineAlgorithms>(RefineAlgorithms.values());
     private JButton runRefineAlgorButton = new JButton("Refine");
+    private JCheckBox gradedBox = new JCheckBox("Graded");
     
     private JComboBox<MouseModes> mousemodeSelector = new JComboBox<MouseModes>(MouseModes.values());
 
@@ -127,6 +129,7 @@ public class DelaunayAp extends javax.swing.JApplet
         buttonPanel.add(new JLabel("          "));      // Spacing
         buttonPanel.add(refinementSelector);
         buttonPanel.add(runRefineAlgorButton);
+        buttonPanel.add(gradedBox);
         buttonNorthPanel.add(buttonPanel, "Center");
 
         // Add the mouse-entry switches
@@ -222,7 +225,8 @@ public class DelaunayAp extends javax.swing.JApplet
 	        }
         }
         if(e.getSource() == runRefineAlgorButton){
-        	delaunayPanel.refine(((RefineAlgorithms)refinementSelector.getSelectedItem()).createAlgorithm());
+        	delaunayPanel.refine(((RefineAlgorithms)refinementSelector.getSelectedItem()).createAlgorithm(),
+        			gradedBox.isSelected());
         }
         delaunayPanel.repaint();
     }
@@ -343,6 +347,8 @@ class DelaunayPanel extends JPanel {
     private Pnt boundaryPointer = null;			// Pnt used to draw a pointer line while in boundary-builder mode.
     private boolean hooked = false;				// true if we are hooked to some point
     public static double hookRadius = 5;		// Radius within which a boundary will hook to an already-existing point.
+    public static double refineMinAngle = 20d/180*Math.PI;	// Smallest angle after refinement
+    public static double refineMaxArea = 200;	// Largest area after refinement
 
     /**
      * Create and initialize the DT.
@@ -405,11 +411,12 @@ class DelaunayPanel extends JPanel {
 	 * 
 	 * @author Kevin van As
 	 * @param selectedItem
+	 * @param graded true to size the triangles by the local feature size of the
+	 * boundary (at most refineMaxArea), false for refineMaxArea everywhere
 	 */
-    public void refine(DelaunayRefineAlgorithm alg) {
-		//if(alg!=null)alg.refine(dt,20d/180*Math.PI,200); 
-		//TODO: Currently a fixed criterion of 20 degrees and area of 200.
-		dt.refine(dt, alg, 20d/180*Math.PI,200);
+    public void refine(DelaunayRefineAlgorithm alg, boolean graded) {
+		if(graded) dt.refine(dt, alg, refineMinAngle, new LocalFeatureSize(dt, refineMaxArea));
+		else dt.refine(dt, alg, refineMinAngle, refineMaxArea);
 	}
     
     /**
@@ -571,10 +578,9 @@ class DelaunayPanel extends JPanel {
 
 	        Color temp = g.getColor();
 	        g.setColor(Color.white);
-            for (Pnt vertex : triangle){
-            	Set<Pnt> facet = triangle.facetOpposite(vertex);
-            	if(dt.isPSLG(facet)){
-            		drawLine(facet.toArray(new Pnt[0]));
+            for (int i = 0; i < 3; i++){
+            	if(dt.isPSLG(triangle, i)){
+            		drawLine(triangle.facetOpposite(triangle.get(i)).toArray(new Pnt[0]));
             	}
             }
 	        g.setColor(temp);
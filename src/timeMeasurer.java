@@ -5,10 +5,14 @@ import java.util.Set;
 
 import GUI.IO;
 
+import triangulation.Geometry2D;
+import triangulation.LocateStrategies;
+import triangulation.MeshBackends;
 import triangulation.Pnt;
 import triangulation.Triangle;
 import triangulation.Triangulation;
 import triangulation.delaunay.algorithms.*;
+import triangulation.delaunay.refineAlgorithms.ParallelRuppert;
 import triangulation.delaunay.refineAlgorithms.Ruppert;
 
 
@@ -29,13 +33,23 @@ public class timeMeasurer {
 	 * 1 = BowyerWatson
 	 * 2 = Lawson with PSLG1
 	 * 3 = BowyerWatson with PSLG1
+	 * 5 = DivideAndConquer
+	 * 6 = SweepHull
+	 * 7 = DivideAndConquer with 1, 2, 4, ... threads (one measurement per thread count)
 	 * <<Refinement>>
 	 * 4 = Ruppert + Lawson with PSLG1
+	 * 8 = ParallelRuppert + BowyerWatson with PSLG1, with 1, 2, 4, ... threads (one measurement per thread count)
 	 */
 	private static int whichAlg = 4;
 	
 	private static final String PSLG_file = "PSLG_car.pnt";
 	
+	private static final MeshBackends meshBackend = MeshBackends.Graph;
+	
+	private static final LocateStrategies locateStrategy = LocateStrategies.Walk;
+	
+	private static final boolean countPredicates = false;	// Counting slows the predicates down
+	
 	
 	public static void main(String[] args){
 		
@@ -49,6 +63,7 @@ public class timeMeasurer {
         
 //Measurement code\\
         
+        Geometry2D.countPredicates = countPredicates;
         double[] resultTimes = new double[repeat];        
         if(whichAlg == 0){
 	        for(int i =0; i<repeat; i++){
@@ -67,6 +82,7 @@ public class timeMeasurer {
 		    	
 				resultTimes[i] = (double)((System.nanoTime()-time)/1000000000d);
 				System.out.println("<<Execution Time>> = " + resultTimes[i]);
+				System.out.println("<<Locate>> " + trilation.obtainLocateCounters());
 				
 				if(savePoints)IO.savePoints(new File(fileName + i + fileExt), trilation.obtainBoundary(), trilation.obtainAllPoints());
 	        }
@@ -87,6 +103,7 @@ public class timeMeasurer {
 		    	
 				resultTimes[i] = (double)((System.nanoTime()-time)/1000000000d);
 				System.out.println("<<Execution Time>> = " + resultTimes[i]);
+				System.out.println("<<Locate>> " + trilation.obtainLocateCounters());
 				
 				if(savePoints)IO.savePoints(new File(fileName + i + fileExt), trilation.obtainBoundary(), trilation.obtainAllPoints());
 	        }
@@ -107,6 +124,7 @@ public class timeMeasurer {
 		    	
 				resultTimes[i] = (double)((System.nanoTime()-time)/1000000000d);
 				System.out.println("<<Execution Time>> = " + resultTimes[i]);
+				System.out.println("<<Locate>> " + trilation.obtainLocateCounters());
 				
 				if(savePoints)IO.savePoints(new File(fileName + i + fileExt), trilation.obtainBoundary(), trilation.obtainAllPoints());
 	        }
@@ -127,9 +145,74 @@ public class timeMeasurer {
 		    	
 				resultTimes[i] = (double)((System.nanoTime()-time)/1000000000d);
 				System.out.println("<<Execution Time>> = " + resultTimes[i]);
+				System.out.println("<<Locate>> " + trilation.obtainLocateCounters());
+				
+				if(savePoints)IO.savePoints(new File(fileName + i + fileExt), trilation.obtainBoundary(), trilation.obtainAllPoints());
+	        }
+		}else if(whichAlg == 5){
+	        for(int i =0; i<repeat; i++){
+	        	//re-init the triangulation
+	            Triangulation trilation = initializeTriangulation(new DivideAndConquer());
+		        
+		        //Generate a set of random points
+		        Set<Pnt> points = generateRandomPoints(N,domain);
+		           
+		        //System.out.println("<<Starting measurement>>");
+		
+		    	long time = System.nanoTime();
+		    	  
+		    	trilation.delaunayPlace(points);   	
+		    	
+		    	
+				resultTimes[i] = (System.nanoTime()-time)/1000000000d;
+				System.out.println("<<Execution Time>> = " + resultTimes[i]);
+				System.out.println("<<Locate>> " + trilation.obtainLocateCounters());
+				
+				if(savePoints)IO.savePoints(new File(fileName + i + fileExt), trilation.obtainBoundary(), trilation.obtainAllPoints());
+	        }
+		}else if(whichAlg == 6){
+	        for(int i =0; i<repeat; i++){
+	        	//re-init the triangulation
+	            Triangulation trilation = initializeTriangulation(new SweepHull());
+		        
+		        //Generate a set of random points
+		        Set<Pnt> points = generateRandomPoints(N,domain);
+		           
+		        //System.out.println("<<Starting measurement>>");
+		
+		    	long time = System.nanoTime();
+		    	  
+		    	trilation.delaunayPlace(points);   	
+		    	
+		    	
+				resultTimes[i] = (System.nanoTime()-time)/1000000000d;
+				System.out.println("<<Execution Time>> = " + resultTimes[i]);
+				System.out.println("<<Locate>> " + trilation.obtainLocateCounters());
 				
 				if(savePoints)IO.savePoints(new File(fileName + i + fileExt), trilation.obtainBoundary(), trilation.obtainAllPoints());
 	        }
+		}else if(whichAlg == 7){
+			int maxThreads = Runtime.getRuntime().availableProcessors();
+			resultTimes = new double[repeat*(32 - Integer.numberOfLeadingZeros(maxThreads))];
+			int k = 0;
+			for(int threads = 1; threads <= maxThreads; threads *= 2){
+		        for(int i =0; i<repeat; i++){
+		        	//re-init the triangulation
+		            Triangulation trilation = initializeTriangulation(new DivideAndConquer(threads));
+			        
+			        //Generate a set of random points
+			        Set<Pnt> points = generateRandomPoints(N,domain);
+			
+			    	long time = System.nanoTime();
+			    	  
+			    	trilation.delaunayPlace(points);   	
+			    	
+			    	
+					resultTimes[k] = (System.nanoTime()-time)/1000000000d;
+					System.out.println("<<Execution Time, " + threads + " thread(s)>> = " + resultTimes[k]);
+					k++;
+		        }
+			}
 		}else if(whichAlg == 4){
 	        for(int i =0; i<repeat; i++){
 	        	//re-init the triangulation
@@ -146,11 +229,33 @@ public class timeMeasurer {
 		    	
 				resultTimes[i] = (double)((System.nanoTime()-time)/1000000000d);
 				System.out.println("<<Execution Time>> = " + resultTimes[i]);
+				System.out.println("<<Locate>> " + trilation.obtainLocateCounters());
 				
 				if(savePoints)IO.savePoints(new File(fileName + i + fileExt), trilation.obtainBoundary(), trilation.obtainAllPoints());
 	        }
+		}else if(whichAlg == 8){
+			int maxThreads = Runtime.getRuntime().availableProcessors();
+			resultTimes = new double[repeat*(32 - Integer.numberOfLeadingZeros(maxThreads))];
+			int k = 0;
+			for(int threads = 1; threads <= maxThreads; threads *= 2){
+		        for(int i =0; i<repeat; i++){
+		        	//re-init the triangulation
+		            Triangulation trilation = initializeTriangulation(new BowyerWatson());
+			
+			    	long time = System.nanoTime();
+			    	 
+			    	trilation.refine(trilation, new ParallelRuppert(threads), minAngle, maxArea);
+			    	
+			    	
+					resultTimes[k] = (System.nanoTime()-time)/1000000000d;
+					System.out.println("<<Execution Time, " + threads + " thread(s)>> = " + resultTimes[k]);
+					System.out.println("<<Points>> " + trilation.obtainAllPoints().size());
+					k++;
+		        }
+			}
 		}
         
+        if(countPredicates)System.out.println("<<Predicates>> " + Geometry2D.counters());
         System.out.println("<<Done!>>");
         System.out.println(Arrays.toString(resultTimes));
 	}
@@ -169,10 +274,11 @@ public class timeMeasurer {
 		//Init triangulation
         Triangle tri0 =
                 new Triangle(new Pnt(-10000,10000), new Pnt(10000,10000), new Pnt(0,-10000));
-		Triangulation trilation = new Triangulation(tri0,alg);
+		Triangulation trilation = new Triangulation(tri0,alg,meshBackend);
+		trilation.changeLocateStrategy(locateStrategy);
 		
 		
-		if(whichAlg == 2 || whichAlg == 3 || whichAlg == 4) IO.loadPoints(new File(PSLG_file),trilation);
+		if(whichAlg == 2 || whichAlg == 3 || whichAlg == 4 || whichAlg == 8) IO.loadPoints(new File(PSLG_file),trilation);
 		
 		
 		return trilation;
@@ -85,6 +85,32 @@ public class ArraySet<E> extends AbstractSet<E> {
         return false;
     }
 
+    /**
+     * Replace the item at the specified index.
+     * @param index where the item is located in the ListSet
+     * @param item the new item; must not be in the set already
+     */
+    protected void replace (int index, E item) {
+        items.set(index, item);
+    }
+
+    /**
+     * Let go of the items, for a subclass that keeps them elsewhere for a
+     * while (see Triangle). Until restoreItems, that subclass must override
+     * every method that reads them.
+     */
+    protected void dropItems () {
+        items = null;
+    }
+
+    /**
+     * Hold the items again, after dropItems.
+     * @param collection the items, without duplicates
+     */
+    protected void restoreItems (Collection<? extends E> collection) {
+        items = new ArrayList<E>(collection);
+    }
+
     @Override
     public boolean add(E item) {
         if (items.contains(item)) return false;
@@ -0,0 +1,118 @@
+package triangulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import triangulation.delaunay.algorithms.BowyerWatson;
+
+/**
+ * A Delaunay hierarchy (Devillers) for fast point location in a Triangulation.
+ *
+ * Level 0 is the Triangulation itself. Every vertex of level k is also put in
+ * level k+1 with probability 1/ratio, so each level is a random sample of the
+ * level below. A point is located by walking in the top level, then going
+ * down: the vertex of the found triangle closest to the point is also a vertex
+ * of the level below, and the walk there starts from a triangle incident to it.
+ * The expected cost is O(log n) per query.
+ *
+ * The upper levels are plain Triangulations (without PSLG), kept up to date by
+ * the Triangulation whenever a site is added or removed. The algorithm of the
+ * Triangulation is not involved: the upper levels use Bowyer-Watson, whose
+ * removal (BowyerWatson.delaunayRemove) is exact and silent.
+ *
+ */
+class DelaunayHierarchy {
+
+    private final static int ratio = 30;        // 1 in ratio vertices goes one level up
+    private final static int maxLevels = 5;     // Number of levels above the Triangulation
+
+    private Triangulation base;                 // Level 0
+    private List<Triangulation> levels =        // Level k is levels.get(k-1)
+        new ArrayList<Triangulation>();
+    private Random random = new Random(0);
+
+    /**
+     * Builds the hierarchy for the sites already in base.
+     * @param base the Triangulation to speed up; must keep vertex hints
+     */
+    DelaunayHierarchy (Triangulation base) {
+        this.base = base;
+        for (Pnt site: base.obtainAllPoints()) insert(site);
+    }
+
+    /**
+     * Add a site, which was just added to the Triangulation, to a random
+     * number of upper levels.
+     * @param site the new site
+     */
+    void insert (Pnt site) {
+        int level = 0;
+        while (level < maxLevels && random.nextInt(ratio) == 0) level++;
+        for (int k = 1; k <= level; k++) {
+            if (levels.size() < k) {
+                Triangle initial = base.obtainInitialTriangle();
+                Triangulation upper = new Triangulation(
+                        new Triangle(initial.get(0), initial.get(1), initial.get(2)),
+                        new BowyerWatson());
+                upper.changeLocateStrategy(LocateStrategies.JumpAndWalk);
+                upper.enableVertexHints();
+                levels.add(upper);
+            }
+            levels.get(k-1).delaunayPlace(site);
+        }
+    }
+
+    /**
+     * Remove a site, which was just removed from the Triangulation, from all
+     * upper levels.
+     * @param site the removed site
+     */
+    void remove (Pnt site) {
+        for (Triangulation upper: levels)
+            if (upper.obtainAllPoints().contains(site)) upper.delaunayRemove(site);
+    }
+
+    /**
+     * @param point the point to locate
+     * @return a triangle of the Triangulation near point, to start a walk from
+     */
+    Triangle start (Pnt point) {
+        if (levels.isEmpty()) return base.anyTriangle();
+        Triangulation top = levels.get(levels.size()-1);
+        Triangle triangle = top.stochasticWalk(point, top.anyTriangle());
+        for (int k = levels.size()-1; k >= 0; k--) {
+            Triangulation below = (k == 0)? base : levels.get(k-1);
+            Triangle start = (triangle == null)? null
+                    : below.vertexHint(nearestVertex(triangle, point));
+            if (start == null) start = below.anyTriangle();
+            if (k == 0) return start;
+            triangle = below.stochasticWalk(point, start);
+        }
+        return triangle;
+    }
+
+    /**
+     * @return the number of walk steps taken in the upper levels
+     */
+    long walkSteps () {
+        long steps = 0;
+        for (Triangulation upper: levels) steps += upper.obtainWalkSteps();
+        return steps;
+    }
+
+    private static Pnt nearestVertex (Triangle triangle, Pnt point) {
+        Pnt nearest = null;
+        double best = Double.POSITIVE_INFINITY;
+        for (Pnt vertex: triangle) {
+            double dx = vertex.coord(0) - point.coord(0);
+            double dy = vertex.coord(1) - point.coord(1);
+            if (dx*dx + dy*dy < best) {
+                best = dx*dx + dy*dy;
+                nearest = vertex;
+            }
+        }
+        return nearest;
+    }
+
+}
@@ -0,0 +1,416 @@
+package triangulation;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Geometric primitives for the plane, working on raw coordinates.
+ *
+ * The methods of Pnt work in any dimension and build matrices of Pnts for
+ * every call. The triangulation is always 2D, so the hot paths (locating,
+ * cavity search, edge flips and refinement) use these methods instead. None
+ * of them allocate, except where a Pnt is the requested result.
+ *
+ * The predicates (orient2d, incircle, inDiametralCircle) always return the
+ * correct sign. They first evaluate in plain floating point and compare the
+ * result with a static bound on its rounding error; only if the result is
+ * smaller than that bound is it recomputed exactly, using expansion
+ * arithmetic (J.R. Shewchuk, "Adaptive Precision Floating-Point Arithmetic
+ * and Fast Robust Geometric Predicates", 1997). The exact path allocates, but
+ * it is rarely needed; the counters below report how often it was.
+ *
+ * The predicates are called from several threads at once (concurrent
+ * insertion, parallel divide and conquer), so counting is off by default:
+ * with countPredicates false the predicates write no shared memory.
+ *
+ */
+public abstract class Geometry2D {
+
+    private static final double epsilon;        // 2^-53, half an ulp of 1
+    private static final double splitter;       // 2^27 + 1, used by split()
+    private static final double orientBound;    // Error bound for orient2d
+    private static final double incircleBound;  // Error bound for incircle
+
+    static {
+        double eps = 1.0, check = 1.0, split = 1.0;
+        boolean everyOther = true;
+        do {                                    // Determine epsilon and splitter
+            eps *= 0.5;
+            if (everyOther) split *= 2.0;
+            everyOther = !everyOther;
+            check = 1.0 + eps;
+        } while (check != 1.0 && check != 1.0 + 2*eps);
+        epsilon = eps;
+        splitter = split + 1.0;
+        orientBound = (3.0 + 16.0 * epsilon) * epsilon;
+        incircleBound = (10.0 + 96.0 * epsilon) * epsilon;
+    }
+
+    /**
+     * Set to true (before the threads start) to count the calls below; see counters().
+     */
+    public static boolean countPredicates = false;
+
+    /* Statistics; how often each predicate was called and fell back to exact arithmetic */
+    private static final AtomicLong orientTests = new AtomicLong(), orientExact = new AtomicLong();
+    private static final AtomicLong incircleTests = new AtomicLong(), incircleExact = new AtomicLong(),
+        incirclePerturbed = new AtomicLong();
+    private static final AtomicLong diametralTests = new AtomicLong(), diametralExact = new AtomicLong();
+
+    /**
+     * Reset all statistics counters to zero.
+     */
+    public static void resetCounters () {
+        orientTests.set(0);
+        orientExact.set(0);
+        incircleTests.set(0);
+        incircleExact.set(0);
+        incirclePerturbed.set(0);
+        diametralTests.set(0);
+        diametralExact.set(0);
+    }
+
+    /**
+     * @return a one-line report of the statistics counters (all zero unless
+     * countPredicates was set)
+     */
+    public static String counters () {
+        return "orient2d: " + orientExact + "/" + orientTests + " exact, "
+            + "incircle: " + incircleExact + "/" + incircleTests + " exact ("
+            + incirclePerturbed + " ties perturbed), "
+            + "diametral: " + diametralExact + "/" + diametralTests + " exact";
+    }
+
+    /**
+     * Orientation test.
+     * @return twice the signed area of triangle abc (or a value with the same
+     * sign): positive if a, b, c are in counterclockwise order, negative if
+     * clockwise, zero if collinear
+     */
+    public static double orient2d (double ax, double ay, double bx, double by,
+            double cx, double cy) {
+        if (countPredicates) orientTests.incrementAndGet();
+        double detLeft = (ax - cx) * (by - cy);
+        double detRight = (ay - cy) * (bx - cx);
+        double det = detLeft - detRight;
+        double errBound = orientBound * (Math.abs(detLeft) + Math.abs(detRight));
+        if (det > errBound || -det > errBound) return det;
+
+        if (countPredicates) orientExact.incrementAndGet();
+        double[] e = sum(sum(product(ax, by), product(-ax, cy)),
+                sum(sum(product(bx, cy), product(-bx, ay)),
+                        sum(product(cx, ay), product(-cx, by))));
+        return estimate(e);
+    }
+
+    /**
+     * In-circle test.
+     * @return positive if d lies inside the circle through a, b and c, negative
+     * if it lies outside, zero if it lies on it; a, b, c in counterclockwise
+     * order (the sign is reversed if they are clockwise)
+     */
+    public static double incircle (double ax, double ay, double bx, double by,
+            double cx, double cy, double dx, double dy) {
+        if (countPredicates) incircleTests.incrementAndGet();
+        double adx = ax - dx, ady = ay - dy;
+        double bdx = bx - dx, bdy = by - dy;
+        double cdx = cx - dx, cdy = cy - dy;
+
+        double bdxcdy = bdx * cdy, cdxbdy = cdx * bdy;
+        double cdxady = cdx * ady, adxcdy = adx * cdy;
+        double adxbdy = adx * bdy, bdxady = bdx * ady;
+        double alift = adx * adx + ady * ady;
+        double blift = bdx * bdx + bdy * bdy;
+        double clift = cdx * cdx + cdy * cdy;
+
+        double det = alift * (bdxcdy - cdxbdy) + blift * (cdxady - adxcdy)
+            + clift * (adxbdy - bdxady);
+        double permanent = (Math.abs(bdxcdy) + Math.abs(cdxbdy)) * alift
+            + (Math.abs(cdxady) + Math.abs(adxcdy)) * blift
+            + (Math.abs(adxbdy) + Math.abs(bdxady)) * clift;
+        double errBound = incircleBound * permanent;
+        if (det > errBound || -det > errBound) return det;
+
+        if (countPredicates) incircleExact.incrementAndGet();
+        double[] eadx = difference(ax, dx), eady = difference(ay, dy);
+        double[] ebdx = difference(bx, dx), ebdy = difference(by, dy);
+        double[] ecdx = difference(cx, dx), ecdy = difference(cy, dy);
+        double[] abdet = sum(multiply(eadx, ebdy), negate(multiply(ebdx, eady)));
+        double[] bcdet = sum(multiply(ebdx, ecdy), negate(multiply(ecdx, ebdy)));
+        double[] cadet = sum(multiply(ecdx, eady), negate(multiply(eadx, ecdy)));
+        double[] ealift = sum(multiply(eadx, eadx), multiply(eady, eady));
+        double[] eblift = sum(multiply(ebdx, ebdx), multiply(ebdy, ebdy));
+        double[] eclift = sum(multiply(ecdx, ecdx), multiply(ecdy, ecdy));
+        double[] e = sum(sum(multiply(ealift, bcdet), multiply(eblift, cadet)),
+                multiply(eclift, abdet));
+        return estimate(e);
+    }
+
+    /**
+     * In-circle test with ties broken by symbolic perturbation, so that no
+     * point is ever reported to lie on the circle. The perturbation is the one
+     * used by CGAL (O. Devillers, M. Teillaud, "Perturbations and Vertex
+     * Removal in a 3D Delaunay Triangulation", 2003): it only depends on the
+     * lexicographic order of the four points, so every test involving the
+     * same four points agrees and flipping always terminates.
+     * @return +1 if d lies inside the circle through a, b and c, -1 if it lies
+     * outside, regardless of the orientation of abc; 0 only if abc is
+     * degenerate and d is on the line, or d coincides with one of a, b, c
+     */
+    public static int incirclePerturbed (double ax, double ay, double bx, double by,
+            double cx, double cy, double dx, double dy) {
+        double orient = orient2d(ax, ay, bx, by, cx, cy);
+        if (orient < 0) {                       // Make abc counterclockwise
+            double t = bx; bx = cx; cx = t;
+            t = by; by = cy; cy = t;
+        }
+        double det = incircle(ax, ay, bx, by, cx, cy, dx, dy);
+        if (det > 0) return 1;
+        if (det < 0) return -1;
+        if (orient == 0) return 0;
+        if ((dx == ax && dy == ay) || (dx == bx && dy == by) || (dx == cx && dy == cy))
+            return 0;
+
+        if (countPredicates) incirclePerturbed.incrementAndGet();
+        // Find the lexicographically largest, then second largest, point and
+        // see whether the corresponding monomial of the perturbed determinant
+        // has a non-zero coefficient (two steps are always enough)
+        double[] xs = {ax, bx, cx, dx}, ys = {ay, by, cy, dy};
+        boolean[] used = new boolean[4];
+        for (int step = 0; step < 2; step++) {
+            int largest = -1;
+            for (int i = 0; i < 4; i++) {
+                if (used[i]) continue;
+                if (largest < 0 || xs[i] > xs[largest]
+                        || (xs[i] == xs[largest] && ys[i] > ys[largest]))
+                    largest = i;
+            }
+            used[largest] = true;
+            double o;
+            switch (largest) {
+            case 3: return -1;                  // abc is not degenerate
+            case 2: o = orient2d(ax, ay, bx, by, dx, dy); break;
+            case 1: o = orient2d(ax, ay, dx, dy, cx, cy); break;
+            default: o = orient2d(dx, dy, bx, by, cx, cy); break;
+            }
+            if (o > 0) return 1;
+            if (o < 0) return -1;
+        }
+        return -1;                              // Not reached
+    }
+
+    /**
+     * Diametral circle test for segment ab.
+     * @return (a-p).(b-p) (or a value with the same sign): negative if p lies
+     * inside the circle with diameter ab, positive if outside, zero if on it
+     */
+    public static double inDiametralCircle (double ax, double ay,
+            double bx, double by, double px, double py) {
+        if (countPredicates) diametralTests.incrementAndGet();
+        double left = (ax - px) * (bx - px);
+        double right = (ay - py) * (by - py);
+        double dot = left + right;
+        double errBound = orientBound * (Math.abs(left) + Math.abs(right));
+        if (dot > errBound || -dot > errBound) return dot;
+
+        if (countPredicates) diametralExact.incrementAndGet();
+        double[] e = sum(multiply(difference(ax, px), difference(bx, px)),
+                multiply(difference(ay, py), difference(by, py)));
+        return estimate(e);
+    }
+
+    /**
+     * Circumcenter of triangle abc.
+     * @param result receives the x and y coordinate of the circumcenter
+     */
+    public static void circumcenter (double ax, double ay, double bx, double by,
+            double cx, double cy, double[] result) {
+        double bax = bx - ax, bay = by - ay;
+        double cax = cx - ax, cay = cy - ay;
+        double bl = bax * bax + bay * bay;
+        double cl = cax * cax + cay * cay;
+        double d = 2 * (bax * cay - bay * cax);
+        result[0] = ax + (cay * bl - bay * cl) / d;
+        result[1] = ay + (bax * cl - cax * bl) / d;
+    }
+
+    /**
+     * Segment intersection test for segments ab and cd. Collinear segments
+     * are reported as not intersecting.
+     * @param includeEndpoints true if touching at an endpoint counts
+     * @return true iff the segments intersect
+     */
+    public static boolean segmentsIntersect (double ax, double ay,
+            double bx, double by, double cx, double cy, double dx, double dy,
+            boolean includeEndpoints) {
+        double o1 = orient2d(ax, ay, bx, by, cx, cy);
+        double o2 = orient2d(ax, ay, bx, by, dx, dy);
+        if (o1 == 0 && o2 == 0) return false;
+        double o3 = orient2d(cx, cy, dx, dy, ax, ay);
+        double o4 = orient2d(cx, cy, dx, dy, bx, by);
+        if (includeEndpoints)
+            return sign(o1) * sign(o2) <= 0 && sign(o3) * sign(o4) <= 0;
+        return sign(o1) * sign(o2) < 0 && sign(o3) * sign(o4) < 0;
+    }
+
+    /**
+     * @return the smallest angle (in radians) of triangle abc
+     */
+    public static double minAngle (double ax, double ay, double bx, double by,
+            double cx, double cy) {
+        double ab = (bx - ax) * (bx - ax) + (by - ay) * (by - ay);
+        double bc = (cx - bx) * (cx - bx) + (cy - by) * (cy - by);
+        double ca = (ax - cx) * (ax - cx) + (ay - cy) * (ay - cy);
+        // The smallest angle is opposite the shortest edge (law of cosines)
+        double opp, s1, s2;
+        if (ab <= bc && ab <= ca) {opp = ab; s1 = bc; s2 = ca;}
+        else if (bc <= ca) {opp = bc; s1 = ab; s2 = ca;}
+        else {opp = ca; s1 = ab; s2 = bc;}
+        double cos = (s1 + s2 - opp) / (2 * Math.sqrt(s1 * s2));
+        return Math.acos(Math.min(1, Math.max(-1, cos)));
+    }
+
+    /**
+     * @return the (unsigned) area of triangle abc
+     */
+    public static double area (double ax, double ay, double bx, double by,
+            double cx, double cy) {
+        return Math.abs(orient2d(ax, ay, bx, by, cx, cy)) / 2;
+    }
+
+    /**
+     * @return the distance from point p to segment ab
+     */
+    public static double segmentDistance (double px, double py, double ax, double ay,
+            double bx, double by) {
+        double dx = bx - ax, dy = by - ay;
+        double length = dx * dx + dy * dy;
+        double t = (length > 0)? ((px - ax) * dx + (py - ay) * dy) / length : 0;
+        t = Math.min(1, Math.max(0, t));            // Closest point of the segment
+        return Math.hypot(px - (ax + t * dx), py - (ay + t * dy));
+    }
+
+    private static int sign (double value) {
+        return (value > 0)? 1 : ((value < 0)? -1 : 0);
+    }
+
+    /* Expansion arithmetic. An expansion is an array of non-overlapping
+     * doubles, ordered by increasing magnitude, whose exact sum is the value
+     * represented; its sign is the sign of its last component. */
+
+    /**
+     * @return the exact difference a-b as an expansion
+     */
+    private static double[] difference (double a, double b) {
+        double x = a - b;
+        double bVirtual = a - x;
+        double aVirtual = x + bVirtual;
+        double y = (a - aVirtual) + (bVirtual - b);
+        return compress(new double[] {y, x}, 2);
+    }
+
+    /**
+     * @return the exact product a*b as an expansion
+     */
+    private static double[] product (double a, double b) {
+        double x = a * b;
+        return compress(new double[] {productTail(a, b, x), x}, 2);
+    }
+
+    /**
+     * @return the rounding error of x = a*b (Dekker's algorithm)
+     */
+    private static double productTail (double a, double b, double x) {
+        double c = splitter * a;
+        double aHi = c - (c - a), aLo = a - aHi;
+        c = splitter * b;
+        double bHi = c - (c - b), bLo = b - bHi;
+        double err = x - aHi * bHi - aLo * bHi - aHi * bLo;
+        return aLo * bLo - err;
+    }
+
+    /**
+     * @return the exact sum of expansions e and f (zero components removed)
+     */
+    private static double[] sum (double[] e, double[] f) {
+        double[] h = new double[e.length + f.length];
+        System.arraycopy(e, 0, h, 0, e.length);
+        int hLength = e.length;
+        for (double component: f) {             // Grow h by each component
+            double q = component;
+            for (int i = 0; i < hLength; i++) {
+                double sum = q + h[i];          // Two-Sum
+                double bVirtual = sum - q, aVirtual = sum - bVirtual;
+                h[i] = (q - aVirtual) + (h[i] - bVirtual);
+                q = sum;
+            }
+            h[hLength++] = q;
+        }
+        return compress(h, hLength);
+    }
+
+    /**
+     * @return the exact product of expansion e and b (zero components removed)
+     */
+    private static double[] scale (double[] e, double b) {
+        if (e.length == 0) return e;
+        double[] h = new double[2 * e.length];
+        int hIndex = 0;
+        double q = e[0] * b;
+        double hh = productTail(e[0], b, q);
+        if (hh != 0) h[hIndex++] = hh;
+        for (int i = 1; i < e.length; i++) {
+            double product1 = e[i] * b;
+            double product0 = productTail(e[i], b, product1);
+            double sum = q + product0;                   // Two-Sum
+            double bVirtual = sum - q, aVirtual = sum - bVirtual;
+            hh = (q - aVirtual) + (product0 - bVirtual);
+            if (hh != 0) h[hIndex++] = hh;
+            q = product1 + sum;                          // Fast-Two-Sum
+            hh = sum - (q - product1);
+            if (hh != 0) h[hIndex++] = hh;
+        }
+        if (q != 0 || hIndex == 0) h[hIndex++] = q;
+        return compress(h, hIndex);
+    }
+
+    /**
+     * @return the exact product of expansions e and f
+     */
+    private static double[] multiply (double[] e, double[] f) {
+        if (f.length == 0) return f;
+        double[] result = scale(e, f[0]);
+        for (int i = 1; i < f.length; i++) result = sum(result, scale(e, f[i]));
+        return result;
+    }
+
+    private static double[] negate (double[] e) {
+        double[] result = new double[e.length];
+        for (int i = 0; i < e.length; i++) result[i] = -e[i];
+        return result;
+    }
+
+    /**
+     * @return the first length components of h, without zeros
+     */
+    private static double[] compress (double[] h, int length) {
+        int count = 0;
+        for (int i = 0; i < length; i++) if (h[i] != 0) count++;
+        if (count == h.length) return h;
+        double[] result = new double[count];
+        count = 0;
+        for (int i = 0; i < length; i++) if (h[i] != 0) result[count++] = h[i];
+        return result;
+    }
+
+    /**
+     * @return an approximation of the value of expansion e, with the right sign
+     */
+    private static double estimate (double[] e) {
+        double value = 0;
+        for (double component: e) value += component;
+        if (e.length > 0 && sign(value) != sign(e[e.length - 1]))
+            return e[e.length - 1];
+        return value;
+    }
+
+}
@@ -0,0 +1,187 @@
+package triangulation;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * The original mesh store: a Graph of Triangles.
+ *
+ * Every triangle is a node and every pair of adjacent triangles is a link.
+ * In addition, each triangle keeps its neighbors in three slots, indexed by
+ * the opposite vertex, so that neighborOpposite() needs no search, and one
+ * bit per edge telling whether the edge is constrained. A list of all
+ * triangles (indexed by Triangle.meshSlot) allows random sampling.
+ *
+ */
+public class GraphMesh implements TriangleMesh {
+
+    private Graph<Triangle> triGraph = new Graph<Triangle>();  // Holds triangles for navigation
+    private List<Triangle> triList = new ArrayList<Triangle>(); // Same triangles, for sampling
+
+    @Override
+    public void add (Triangle triangle) {
+        if (triGraph.nodeSet().contains(triangle)) return;
+        triGraph.add(triangle);
+        triangle.neighborSlots = new Triangle[3];
+        triangle.meshSlot = triList.size();
+        triList.add(triangle);
+    }
+
+    @Override
+    public void remove (Triangle triangle) {
+        if (!triGraph.nodeSet().contains(triangle)) return;
+        Triangle[] slots = triangle.neighborSlots;
+        for (int i = 0; i < 3; i++) {
+            Triangle neighbor = slots[i];
+            if (neighbor == null) continue;
+            Triangle[] back = neighbor.neighborSlots;   // Remove "to" links
+            for (int j = 0; j < 3; j++) if (back[j] == triangle) back[j] = null;
+            slots[i] = null;
+        }
+        triGraph.remove(triangle);
+        Triangle last = triList.remove(triList.size()-1);    // Swap-remove
+        if (last != triangle) {
+            triList.set(triangle.meshSlot, last);
+            last.meshSlot = triangle.meshSlot;
+        }
+        triangle.meshSlot = -1;
+    }
+
+    /**
+     * Link two triangles. Triangles that do not share exactly one facet are
+     * not linked. A link replaces any earlier link across the same facet.
+     */
+    @Override
+    public void addLink (Triangle triangleA, Triangle triangleB) {
+        int oppA = oppositeOf(triangleA, triangleB);
+        int oppB = oppositeOf(triangleB, triangleA);
+        if (oppA < 0 || oppB < 0) return;
+        unlink(triangleA, oppA, triangleB);
+        unlink(triangleB, oppB, triangleA);
+        triangleA.neighborSlots[oppA] = triangleB;
+        triangleB.neighborSlots[oppB] = triangleA;
+        triGraph.addLink(triangleA, triangleB);
+        if (((triangleA.constrainedEdges >> oppA) & 1) != 0
+                || ((triangleB.constrainedEdges >> oppB) & 1) != 0) {
+            triangleA.constrainedEdges |= 1 << oppA;
+            triangleB.constrainedEdges |= 1 << oppB;
+        }
+    }
+
+    @Override
+    public void flip (Triangle triangle, int i) {
+        Triangle neighbor = triangle.neighborSlots[i];
+        int ia = (i+1)%3, ib = (i+2)%3;
+        Pnt p = triangle.get(i), a = triangle.get(ia), b = triangle.get(ib);
+        int ja = neighbor.indexOf(a), jb = neighbor.indexOf(b), jq = 3 - ja - jb;
+        Triangle outer = triangle.neighborSlots[ia];        // Across <p,b>: goes to neighbor
+        Triangle outerNeighbor = neighbor.neighborSlots[jb]; // Across <a,q>: goes to triangle
+        boolean constrained = ((triangle.constrainedEdges >> ia) & 1) != 0;
+        boolean constrainedNeighbor = ((neighbor.constrainedEdges >> jb) & 1) != 0;
+        triangle.replaceVertex(ib, neighbor.get(jq));
+        neighbor.replaceVertex(ja, p);
+        triangle.neighborSlots[i] = outerNeighbor;
+        setBit(triangle, i, constrainedNeighbor);
+        triangle.neighborSlots[ia] = neighbor;
+        setBit(triangle, ia, false);
+        neighbor.neighborSlots[jb] = triangle;
+        setBit(neighbor, jb, false);
+        neighbor.neighborSlots[jq] = outer;
+        setBit(neighbor, jq, constrained);
+        if (outer != null) {
+            Triangle[] back = outer.neighborSlots;
+            for (int j = 0; j < 3; j++) if (back[j] == triangle) back[j] = neighbor;
+            triGraph.remove(triangle, outer);
+            triGraph.addLink(neighbor, outer);
+        }
+        if (outerNeighbor != null) {
+            Triangle[] back = outerNeighbor.neighborSlots;
+            for (int j = 0; j < 3; j++) if (back[j] == neighbor) back[j] = triangle;
+            triGraph.remove(neighbor, outerNeighbor);
+            triGraph.addLink(triangle, outerNeighbor);
+        }
+    }
+
+    /**
+     * Drop the link in slot i of triangle, unless it already goes to keep.
+     */
+    private void unlink (Triangle triangle, int i, Triangle keep) {
+        Triangle old = triangle.neighborSlots[i];
+        if (old == null || old == keep) return;
+        Triangle[] back = old.neighborSlots;
+        for (int j = 0; j < 3; j++) if (back[j] == triangle) back[j] = null;
+        triangle.neighborSlots[i] = null;
+        triGraph.remove(triangle, old);
+    }
+
+    /**
+     * @return the index of the one vertex of triangleA that is not in
+     * triangleB; -1 if the triangles do not share exactly two vertices
+     */
+    private static int oppositeOf (Triangle triangleA, Triangle triangleB) {
+        int opposite = -1;
+        for (int i = 0; i < 3; i++) {
+            if (triangleB.indexOf(triangleA.get(i)) < 0) {
+                if (opposite >= 0) return -1;
+                opposite = i;
+            }
+        }
+        return opposite;
+    }
+
+    @Override
+    public Set<Triangle> neighbors (Triangle triangle) {
+        return triGraph.neighbors(triangle);
+    }
+
+    @Override
+    public Triangle neighborOpposite (Pnt site, Triangle triangle) {
+        int i = triangle.indexOf(site);
+        if (i < 0)
+            throw new IllegalArgumentException("Bad vertex; not in triangle");
+        return triangle.neighborSlots[i];
+    }
+
+    @Override
+    public boolean isConstrained (Triangle triangle, int i) {
+        return ((triangle.constrainedEdges >> i) & 1) != 0;
+    }
+
+    @Override
+    public void setConstrained (Triangle triangle, int i, boolean constrained) {
+        setBit(triangle, i, constrained);
+        Triangle neighbor = triangle.neighborSlots[i];
+        if (neighbor != null)
+            setBit(neighbor, oppositeOf(neighbor, triangle), constrained);
+    }
+
+    private static void setBit (Triangle triangle, int i, boolean constrained) {
+        if (constrained) triangle.constrainedEdges |= 1 << i;
+        else triangle.constrainedEdges &= ~(1 << i);
+    }
+
+    @Override
+    public boolean contains (Object triangle) {
+        return triGraph.nodeSet().contains(triangle);
+    }
+
+    @Override
+    public Triangle sample (Random random) {
+        if (triList.isEmpty()) return null;
+        return triList.get(random.nextInt(triList.size()));
+    }
+
+    @Override
+    public int size () {
+        return triGraph.nodeSet().size();
+    }
+
+    @Override
+    public Iterator<Triangle> iterator () {
+        return triGraph.nodeSet().iterator();
+    }
+
+}
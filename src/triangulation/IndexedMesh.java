@@ -0,0 +1,388 @@
+package triangulation;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * A mesh store that keeps triangles in flat int[] arrays.
+ *
+ * Every triangle occupies a slot. For slot s, vertices[3*s+i] is the index of
+ * its i-th vertex and neighbors[3*s+i] is the slot of the triangle opposite
+ * that vertex (or NONE); bit i of constraints[s] tells whether that edge is
+ * constrained. Points are referenced by index into the point arrays. Freed
+ * slots are reused.
+ *
+ * The arrays are the only copy of the vertices and the adjacency. A Triangle
+ * added to this mesh gives up its own list of vertices and reads them from its
+ * slot (see Triangle.storeIn); it gets them back when it is removed. A flip
+ * only changes the arrays. Each live slot keeps its Triangle as the handle the
+ * algorithms hold on to: they keep triangles across operations, compare them
+ * by identity and mark or claim them (see Workspace), so there is one handle
+ * per triangle rather than one made on every call. Points get their index from
+ * a HashMap, which keeps points whose triangles have all been removed.
+ *
+ */
+public class IndexedMesh implements TriangleMesh {
+
+    public final static int NONE = -1;          // "No triangle" / "no vertex"
+
+    private Pnt[] points = new Pnt[64];         // Point index -> Pnt
+    private double[] xs = new double[64];       // Point index -> x coordinate
+    private double[] ys = new double[64];       // Point index -> y coordinate
+    private int numPoints = 0;
+    private Map<Pnt, Integer> pointIds =        // Pnt -> point index
+        new HashMap<Pnt, Integer>();
+
+    private int[] vertices = new int[3*64];     // Slot -> 3 point indices
+    private int[] neighbors = new int[3*64];    // Slot -> 3 opposite slots
+    private Triangle[] handles = new Triangle[64]; // Slot -> Triangle
+    private byte[] constraints = new byte[64];  // Slot -> bit i set iff edge opposite vertex i is constrained
+    private int numSlots = 0;                   // High-water mark of slots
+    private int[] freeSlots = new int[16];      // Stack of reusable slots
+    private int numFree = 0;
+    private int size = 0;                       // Number of live triangles
+
+    /* Points */
+
+    /**
+     * @param site a point
+     * @return the index of site, registering it if it is new
+     */
+    public int pointIndex (Pnt site) {
+        Integer id = pointIds.get(site);
+        if (id != null) return id;
+        if (numPoints == points.length) {
+            int cap = 2*numPoints;
+            Pnt[] p = new Pnt[cap];
+            System.arraycopy(points, 0, p, 0, numPoints);
+            points = p;
+            double[] x = new double[cap];
+            System.arraycopy(xs, 0, x, 0, numPoints);
+            xs = x;
+            double[] y = new double[cap];
+            System.arraycopy(ys, 0, y, 0, numPoints);
+            ys = y;
+        }
+        points[numPoints] = site;
+        xs[numPoints] = site.coord(0);
+        ys[numPoints] = site.coord(1);
+        pointIds.put(site, numPoints);
+        return numPoints++;
+    }
+
+    public Pnt point (int index) {
+        return points[index];
+    }
+
+    public double x (int index) {
+        return xs[index];
+    }
+
+    public double y (int index) {
+        return ys[index];
+    }
+
+    /* Slots */
+
+    /**
+     * @param triangle a Triangle
+     * @return the slot of triangle; NONE if it is not in this mesh
+     */
+    public int slotOf (Object triangle) {
+        if (!(triangle instanceof Triangle)) return NONE;
+        int slot = ((Triangle) triangle).meshSlot;
+        if (slot < 0 || slot >= numSlots || handles[slot] != triangle)
+            return NONE;
+        return slot;
+    }
+
+    private int checkedSlot (Triangle triangle) {
+        int slot = slotOf(triangle);
+        if (slot == NONE)
+            throw new IllegalArgumentException("Triangle not in mesh");
+        return slot;
+    }
+
+    /**
+     * @param slot a live slot
+     * @param i 0, 1 or 2
+     * @return the point index of the i-th vertex of slot
+     */
+    public int vertex (int slot, int i) {
+        return vertices[3*slot+i];
+    }
+
+    /**
+     * @param slot a live slot
+     * @param i 0, 1 or 2
+     * @return the slot opposite the i-th vertex of slot; NONE if none
+     */
+    public int neighbor (int slot, int i) {
+        return neighbors[3*slot+i];
+    }
+
+    /**
+     * @param slot a live slot
+     * @return the Triangle in slot
+     */
+    public Triangle handle (int slot) {
+        return handles[slot];
+    }
+
+    private int allocateSlot () {
+        if (numFree > 0) return freeSlots[--numFree];
+        if (numSlots == handles.length) {
+            int cap = 2*numSlots;
+            int[] v = new int[3*cap];
+            System.arraycopy(vertices, 0, v, 0, 3*numSlots);
+            vertices = v;
+            int[] n = new int[3*cap];
+            System.arraycopy(neighbors, 0, n, 0, 3*numSlots);
+            neighbors = n;
+            Triangle[] h = new Triangle[cap];
+            System.arraycopy(handles, 0, h, 0, numSlots);
+            handles = h;
+            byte[] c = new byte[cap];
+            System.arraycopy(constraints, 0, c, 0, numSlots);
+            constraints = c;
+        }
+        return numSlots++;
+    }
+
+    private void freeSlot (int slot) {
+        if (numFree == freeSlots.length) {
+            int[] f = new int[2*numFree];
+            System.arraycopy(freeSlots, 0, f, 0, numFree);
+            freeSlots = f;
+        }
+        freeSlots[numFree++] = slot;
+    }
+
+    /* TriangleMesh */
+
+    /**
+     * Add triangle; from now on its vertices are only kept in the slot.
+     */
+    @Override
+    public void add (Triangle triangle) {
+        if (slotOf(triangle) != NONE) return;
+        int slot = allocateSlot();
+        for (int i = 0; i < 3; i++) {
+            vertices[3*slot+i] = pointIndex(triangle.get(i));
+            neighbors[3*slot+i] = NONE;
+        }
+        handles[slot] = triangle;
+        constraints[slot] = 0;
+        triangle.meshSlot = slot;
+        triangle.storeIn(this);
+        size++;
+    }
+
+    @Override
+    public void remove (Triangle triangle) {
+        int slot = slotOf(triangle);
+        if (slot == NONE) return;
+        for (int i = 0; i < 3; i++) {
+            int nb = neighbors[3*slot+i];
+            if (nb == NONE) continue;
+            for (int j = 0; j < 3; j++)                 // Remove "to" links
+                if (neighbors[3*nb+j] == slot) neighbors[3*nb+j] = NONE;
+        }
+        triangle.takeBack();                            // Before the slot is reused
+        for (int i = 0; i < 3; i++) {                   // Remove the slot
+            vertices[3*slot+i] = NONE;
+            neighbors[3*slot+i] = NONE;
+        }
+        handles[slot] = null;
+        triangle.meshSlot = NONE;
+        freeSlot(slot);
+        size--;
+    }
+
+    /**
+     * Link two triangles. Triangles that do not share exactly one facet have
+     * no slot to be linked through, so nothing happens for them. A link
+     * replaces any earlier link across the same facet, on both sides (as in
+     * GraphMesh).
+     */
+    @Override
+    public void addLink (Triangle triangleA, Triangle triangleB) {
+        int slotA = checkedSlot(triangleA);
+        int slotB = checkedSlot(triangleB);
+        int oppA = oppositeOf(slotA, slotB);
+        int oppB = oppositeOf(slotB, slotA);
+        if (oppA == NONE || oppB == NONE) return;
+        unlink(slotA, oppA, slotB);
+        unlink(slotB, oppB, slotA);
+        neighbors[3*slotA+oppA] = slotB;
+        neighbors[3*slotB+oppB] = slotA;
+        if (((constraints[slotA] >> oppA) & 1) != 0
+                || ((constraints[slotB] >> oppB) & 1) != 0) {
+            constraints[slotA] |= 1 << oppA;
+            constraints[slotB] |= 1 << oppB;
+        }
+    }
+
+    /**
+     * Drop the link of slot across the edge opposite its i-th vertex, and the
+     * link back to slot, unless it goes to keep.
+     */
+    private void unlink (int slot, int i, int keep) {
+        int old = neighbors[3*slot+i];
+        if (old == NONE || old == keep) return;
+        for (int j = 0; j < 3; j++)
+            if (neighbors[3*old+j] == slot) neighbors[3*old+j] = NONE;
+        neighbors[3*slot+i] = NONE;
+    }
+
+    /**
+     * @return the vertex position in slotA of the one vertex not shared with
+     * slotB; NONE if the triangles do not share exactly two vertices
+     */
+    private int oppositeOf (int slotA, int slotB) {
+        int opposite = NONE;
+        for (int i = 0; i < 3; i++) {
+            int v = vertices[3*slotA+i];
+            if (v != vertices[3*slotB] && v != vertices[3*slotB+1]
+                    && v != vertices[3*slotB+2]) {
+                if (opposite != NONE) return NONE;
+                opposite = i;
+            }
+        }
+        return opposite;
+    }
+
+    @Override
+    public void flip (Triangle triangle, int i) {
+        int slot = checkedSlot(triangle);
+        int nb = neighbors[3*slot+i];
+        int ia = (i+1)%3, ib = (i+2)%3;
+        int p = vertices[3*slot+i], a = vertices[3*slot+ia], b = vertices[3*slot+ib];
+        int ja = NONE, jb = NONE;
+        for (int j = 0; j < 3; j++) {
+            if (vertices[3*nb+j] == a) ja = j;
+            else if (vertices[3*nb+j] == b) jb = j;
+        }
+        int jq = 3 - ja - jb;
+        int q = vertices[3*nb+jq];
+        int outer = neighbors[3*slot+ia];               // Across <p,b>: goes to nb
+        int outerNb = neighbors[3*nb+jb];               // Across <a,q>: goes to slot
+        boolean constrained = isConstrained(slot, ia);
+        boolean constrainedNb = isConstrained(nb, jb);
+        vertices[3*slot+ib] = q;
+        vertices[3*nb+ja] = p;
+        neighbors[3*slot+i] = outerNb;
+        setBit(slot, i, constrainedNb);
+        neighbors[3*slot+ia] = nb;
+        setBit(slot, ia, false);
+        neighbors[3*nb+jb] = slot;
+        setBit(nb, jb, false);
+        neighbors[3*nb+jq] = outer;
+        setBit(nb, jq, constrained);
+        if (outer != NONE)
+            for (int j = 0; j < 3; j++) if (neighbors[3*outer+j] == slot) neighbors[3*outer+j] = nb;
+        if (outerNb != NONE)
+            for (int j = 0; j < 3; j++) if (neighbors[3*outerNb+j] == nb) neighbors[3*outerNb+j] = slot;
+        triangle.verticesChanged();
+        handles[nb].verticesChanged();
+    }
+
+    @Override
+    public Set<Triangle> neighbors (Triangle triangle) {
+        int slot = checkedSlot(triangle);
+        ArraySet<Triangle> result = new ArraySet<Triangle>();
+        for (int i = 0; i < 3; i++) {
+            int nb = neighbors[3*slot+i];
+            if (nb != NONE) result.add(handle(nb));
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    @Override
+    public Triangle neighborOpposite (Pnt site, Triangle triangle) {
+        int slot = checkedSlot(triangle);
+        int i = triangle.indexOf(site);
+        if (i < 0)
+            throw new IllegalArgumentException("Bad vertex; not in triangle");
+        int nb = neighbors[3*slot+i];
+        return (nb == NONE)? null : handle(nb);
+    }
+
+    /**
+     * @param slot a live slot
+     * @param i 0, 1 or 2
+     * @return true iff the edge opposite the i-th vertex of slot is constrained
+     */
+    public boolean isConstrained (int slot, int i) {
+        return ((constraints[slot] >> i) & 1) != 0;
+    }
+
+    @Override
+    public boolean isConstrained (Triangle triangle, int i) {
+        return isConstrained(checkedSlot(triangle), i);
+    }
+
+    @Override
+    public void setConstrained (Triangle triangle, int i, boolean constrained) {
+        int slot = checkedSlot(triangle);
+        setBit(slot, i, constrained);
+        int nb = neighbors[3*slot+i];
+        if (nb != NONE) setBit(nb, oppositeOf(nb, slot), constrained);
+    }
+
+    private void setBit (int slot, int i, boolean constrained) {
+        if (constrained) constraints[slot] |= 1 << i;
+        else constraints[slot] &= ~(1 << i);
+    }
+
+    @Override
+    public boolean contains (Object triangle) {
+        return slotOf(triangle) != NONE;
+    }
+
+    /**
+     * Picks random slots until a live one is found. Freed slots are reused
+     * before new ones are made, so most slots are live.
+     */
+    @Override
+    public Triangle sample (Random random) {
+        if (size == 0) return null;
+        while (true) {
+            int slot = random.nextInt(numSlots);
+            if (vertices[3*slot] != NONE) return handle(slot);
+        }
+    }
+
+    @Override
+    public int size () {
+        return size;
+    }
+
+    /**
+     * Iterates over the live slots, returning the Triangle of each.
+     */
+    @Override
+    public Iterator<Triangle> iterator () {
+        return new Iterator<Triangle>() {
+            private int next = advance(0);
+            private int advance (int slot) {
+                while (slot < numSlots && vertices[3*slot] == NONE) slot++;
+                return slot;
+            }
+            public boolean hasNext() {return next < numSlots;}
+            public Triangle next() {
+                if (next >= numSlots) throw new NoSuchElementException();
+                Triangle triangle = handle(next);
+                next = advance(next+1);
+                return triangle;
+            }
+            public void remove() {throw new UnsupportedOperationException();}
+        };
+    }
+
+}
@@ -0,0 +1,22 @@
+package triangulation;
+
+/**
+ * The available ways for Triangulation.locate() to find the triangle holding
+ * a point. Can be changed at any time (see Triangulation.changeLocateStrategy).
+ *
+ */
+public enum LocateStrategies {
+	Walk("Walk from most recent"),
+	JumpAndWalk("Jump-and-walk"),
+	Hierarchy("Delaunay hierarchy");
+
+	private String name;
+
+	private LocateStrategies(String name){
+		this.name = name;
+	}
+
+	public String toString(){
+		return name;
+	}
+}
@@ -0,0 +1,28 @@
+package triangulation;
+
+/**
+ * The available ways of storing the triangles of a Triangulation.
+ * Chosen when the Triangulation is constructed.
+ *
+ */
+public enum MeshBackends {
+	Graph("Graph"),
+	Indexed("Indexed arrays");
+
+	private String name;
+
+	private MeshBackends(String name){
+		this.name = name;
+	}
+
+	public String toString(){
+		return name;
+	}
+
+	public TriangleMesh createMesh(){
+		if(this == Indexed){
+			return new IndexedMesh();
+		}
+		return new GraphMesh();
+	}
+}
@@ -0,0 +1,148 @@
+package triangulation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One batch of changes to a Triangulation, as passed to a MeshListener.
+ *
+ * The Triangulation only records changes while it has listeners. It records
+ * them as they happen, in plain lists, and sorts them out once per batch:
+ * a triangle that is flipped twice is reported once, and a triangle that was
+ * added and removed again within the batch is not reported at all.
+ *
+ * Flips change triangles in place, so a triangle that is still in the mesh
+ * may be reported as created although the listener has seen it before: it
+ * has other vertices now.
+ *
+ */
+public class MeshChanges {
+
+    // As recorded:
+    private List<Triangle> added = new ArrayList<Triangle>();
+    private List<Triangle> flipped = new ArrayList<Triangle>();
+    private List<Triangle> removed = new ArrayList<Triangle>();
+    private List<Pnt> inserted = new ArrayList<Pnt>();
+    private List<Pnt> deleted = new ArrayList<Pnt>();
+    private List<Set<Pnt>> splitSegments = new ArrayList<Set<Pnt>>();
+    private List<Pnt> splitPoints = new ArrayList<Pnt>();
+
+    // As reported (see prepare):
+    private Set<Triangle> created = Collections.emptySet();
+    private List<Triangle> destroyed = Collections.emptyList();
+
+    MeshChanges () {
+    }
+
+    void triangleAdded (Triangle triangle) {
+        added.add(triangle);
+    }
+
+    void triangleFlipped (Triangle triangle) {
+        flipped.add(triangle);
+    }
+
+    void triangleRemoved (Triangle triangle) {
+        removed.add(triangle);
+    }
+
+    void vertexInserted (Pnt vertex) {
+        inserted.add(vertex);
+    }
+
+    void vertexRemoved (Pnt vertex) {
+        deleted.add(vertex);
+    }
+
+    void segmentSplit (Set<Pnt> segment, Pnt point) {
+        splitSegments.add(segment);
+        splitPoints.add(point);
+    }
+
+    /**
+     * @return true iff nothing was recorded since the last clear()
+     */
+    boolean isEmpty () {
+        return added.isEmpty() && flipped.isEmpty() && removed.isEmpty()
+            && inserted.isEmpty() && deleted.isEmpty() && splitSegments.isEmpty();
+    }
+
+    /**
+     * Work out the triangles to report, now that the batch is complete.
+     * @param mesh the triangles of the Triangulation after the batch
+     */
+    void prepare (TriangleMesh mesh) {
+        created = new LinkedHashSet<Triangle>();
+        for (Triangle triangle: added) if (mesh.contains(triangle)) created.add(triangle);
+        for (Triangle triangle: flipped) if (mesh.contains(triangle)) created.add(triangle);
+        destroyed = new ArrayList<Triangle>(removed.size());
+        Set<Triangle> addedInBatch = new HashSet<Triangle>(added);
+        for (Triangle triangle: removed)
+            if (!addedInBatch.contains(triangle) && !mesh.contains(triangle)) destroyed.add(triangle);
+    }
+
+    /**
+     * Forget the batch.
+     */
+    void clear () {
+        added.clear();
+        flipped.clear();
+        removed.clear();
+        inserted.clear();
+        deleted.clear();
+        splitSegments.clear();
+        splitPoints.clear();
+        created = Collections.emptySet();
+        destroyed = Collections.emptyList();
+    }
+
+    /**
+     * @return the triangles that were added to the mesh or changed by a flip,
+     * and are still in the mesh, each once
+     */
+    public Set<Triangle> obtainCreatedTriangles () {
+        return Collections.unmodifiableSet(created);
+    }
+
+    /**
+     * @return the triangles that were removed from the mesh (and were there
+     * before the batch)
+     */
+    public List<Triangle> obtainDestroyedTriangles () {
+        return Collections.unmodifiableList(destroyed);
+    }
+
+    /**
+     * @return the sites that were added, in order
+     */
+    public List<Pnt> obtainInsertedVertices () {
+        return Collections.unmodifiableList(inserted);
+    }
+
+    /**
+     * @return the sites that were removed, in order
+     */
+    public List<Pnt> obtainRemovedVertices () {
+        return Collections.unmodifiableList(deleted);
+    }
+
+    /**
+     * @return the segments of the PSLG that were split, in order; the i-th
+     * segment was split at the i-th point of obtainSplitPoints()
+     */
+    public List<Set<Pnt>> obtainSplitSegments () {
+        return Collections.unmodifiableList(splitSegments);
+    }
+
+    /**
+     * @return the points at which the segments were split
+     */
+    public List<Pnt> obtainSplitPoints () {
+        return Collections.unmodifiableList(splitPoints);
+    }
+
+}
@@ -0,0 +1,23 @@
+package triangulation;
+
+/**
+ * Receives the changes made to a Triangulation (see
+ * Triangulation.addMeshListener).
+ *
+ * The changes are reported in batches: one call per operation on the
+ * Triangulation (e.g. delaunayPlace or splitBoundary), or per set of sites for
+ * the bulk insertions. The listener is called by the thread that changed the
+ * mesh, after the change is complete; in concurrent insertion mode the mesh is
+ * still held exclusively during the call.
+ *
+ */
+public interface MeshListener {
+
+    /**
+     * The mesh was changed. The listener must not change the Triangulation
+     * from this method.
+     * @param changes the changes of the batch; only valid during this call
+     */
+    public void meshChanged (MeshChanges changes);
+
+}
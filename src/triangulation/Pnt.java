@@ -385,6 +385,7 @@ public class Pnt {
         int dim = simplex.length - 1;
         if (this.dimension() != dim)
             throw new IllegalArgumentException("Dimension mismatch");
+        if (dim == 2) return relation2D(simplex);
 
         /* Create and load the matrix */
         Pnt[] matrix = new Pnt[dim+1];
@@ -421,6 +422,35 @@ public class Pnt {
         return result;
     }
 
+    /**
+     * Same as relation(), but for a triangle; no matrices are built.
+     */
+    private int[] relation2D (Pnt[] simplex) {
+        double px = coordinates[0], py = coordinates[1];
+        double ax = simplex[0].coordinates[0], ay = simplex[0].coordinates[1];
+        double bx = simplex[1].coordinates[0], by = simplex[1].coordinates[1];
+        double cx = simplex[2].coordinates[0], cy = simplex[2].coordinates[1];
+        double content = Geometry2D.orient2d(ax, ay, bx, by, cx, cy);
+        int[] result = new int[3];
+        result[0] = side(content, Geometry2D.orient2d(px, py, bx, by, cx, cy));
+        result[1] = side(content, Geometry2D.orient2d(ax, ay, px, py, cx, cy));
+        result[2] = side(content, Geometry2D.orient2d(ax, ay, bx, by, px, py));
+        return result;
+    }
+
+    /**
+     * Sign as used by relation(). The areas come from Geometry2D.orient2d,
+     * so their signs are exact and no tolerance is needed.
+     * @param content the signed area of the simplex
+     * @param area the signed area with this Pnt substituted for a vertex
+     * @return -1, 0 or +1 for same side, on, or opposite side of the facet
+     */
+    static int side (double content, double area) {
+        if (area == 0) return 0;
+        if (content == 0) return 1;
+        return ((area > 0) == (content > 0))? -1 : 1;
+    }
+
     /**
      * Test if this Pnt is outside of simplex.
      * @param simplex the simplex (an array of Pnts)
@@ -466,6 +496,8 @@ public class Pnt {
      * @return -1, 0, or +1 for inside, on, or outside of circumcircle
      */
     public int vsCircumcircle (Pnt[] simplex) {
+        if (simplex.length == 3 && coordinates.length == 2)
+            return vsCircumcircle(simplex[0], simplex[1], simplex[2]);
         Pnt[] matrix = new Pnt[simplex.length + 1];
         for (int i = 0; i < simplex.length; i++)
             matrix[i] = simplex[i].extend(1, simplex[i].dot(simplex[i]));
@@ -476,6 +508,18 @@ public class Pnt {
         return result;
     }
 
+    /**
+     * Test relation between this (2D) Pnt and circumcircle of a triangle.
+     * Cocircular points are never reported as "on" (see
+     * Geometry2D.incirclePerturbed); only the triangle's own vertices are.
+     * @return -1, 0, or +1 for inside, on, or outside of circumcircle
+     */
+    public int vsCircumcircle (Pnt a, Pnt b, Pnt c) {
+        return -Geometry2D.incirclePerturbed(a.coordinates[0], a.coordinates[1],
+                b.coordinates[0], b.coordinates[1], c.coordinates[0], c.coordinates[1],
+                coordinates[0], coordinates[1]);
+    }
+
     /**
      * Test relation between this Pnt and diametrical circle of a segment
      * @author Kevin van As
@@ -484,15 +528,17 @@ public class Pnt {
      */
     public int vsDiamcircle (Pnt[] segment) {
     	if(segment.length != 2) throw new IllegalArgumentException("Segment must consists of exactly 2 points.");
-    	
-    	Pnt mid = segment[0].midPoint(segment[1]);
-    	double radius = (segment[0].subtract(mid)).magnitude();
-    	double dist = (this.subtract(mid)).magnitude();
-    	
-    	//Check relationship. The "0.0000001" is to prevent numerical error saying `in/out' while it really is `on'.
-    	if(radius<dist-0.0000001) return 1;
-    	if(radius>dist+0.0000001) return -1;
-    	return 0;
+    	return vsDiamcircle(segment[0], segment[1]);
+    }
+
+    /**
+     * Test relation between this (2D) Pnt and diametrical circle of segment ab
+     * @return -1, 0, or +1 for inside, on, or outside of circumcircle
+     */
+    public int vsDiamcircle (Pnt a, Pnt b) {
+    	double d = Geometry2D.inDiametralCircle(a.coordinates[0], a.coordinates[1],
+    			b.coordinates[0], b.coordinates[1], coordinates[0], coordinates[1]);
+    	return (d < 0)? -1 : ((d > 0)? +1 : 0);
     }
     
     /**
@@ -504,6 +550,13 @@ public class Pnt {
         int dim = simplex[0].dimension();
         if (simplex.length - 1 != dim)
             throw new IllegalArgumentException("Dimension mismatch");
+        if (dim == 2) {
+            double[] result = new double[2];
+            Geometry2D.circumcenter(simplex[0].coordinates[0], simplex[0].coordinates[1],
+                    simplex[1].coordinates[0], simplex[1].coordinates[1],
+                    simplex[2].coordinates[0], simplex[2].coordinates[1], result);
+            return new Pnt(result);
+        }
         Pnt[] matrix = new Pnt[dim];
         for (int i = 0; i < dim; i++)
             matrix[i] = simplex[i].bisector(simplex[i+1]);
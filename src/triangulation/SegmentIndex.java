@@ -0,0 +1,149 @@
+package triangulation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A spatial index over the segments of the PSLG, to find the segments whose
+ * diametral circle holds a point without testing every segment.
+ *
+ * The index is a loose grid with one level per power of two: a segment of
+ * length d, with 2^k <= d < 2^(k+1), is put in level k, in the cell of size
+ * 2^(k+1) that holds its midpoint. Its diametral circle then reaches less than
+ * half a cell beyond that cell, so a query looks at about 2x2 cells per level.
+ * Splitting a segment moves the halves one level down, and no bounds on the
+ * domain are needed. The cells are kept in hash maps, so only cells with
+ * segments take space.
+ *
+ * The Triangulation updates the index whenever its list of segments changes.
+ *
+ */
+class SegmentIndex {
+
+    private Map<Integer, Map<Long, List<Set<Pnt>>>> levels =   // Level k -> cell -> segments
+        new HashMap<Integer, Map<Long, List<Set<Pnt>>>>();
+    private Map<Integer, Integer> levelSizes =                  // Level k -> number of segments
+        new HashMap<Integer, Integer>();
+    private Map<Pnt, Integer> endpoints =                       // Vertex -> number of segments ending there
+        new HashMap<Pnt, Integer>();
+
+    /**
+     * @param segment a new segment of the PSLG (two Pnts)
+     */
+    void add (Set<Pnt> segment) {
+        Iterator<Pnt> it = segment.iterator();
+        Pnt a = it.next(), b = it.next();
+        int level = level(a, b);
+        Map<Long, List<Set<Pnt>>> cells = levels.get(level);
+        if (cells == null) {
+            cells = new HashMap<Long, List<Set<Pnt>>>();
+            levels.put(level, cells);
+            levelSizes.put(level, 0);
+        }
+        long key = cellOfMidpoint(a, b, level);
+        List<Set<Pnt>> cell = cells.get(key);
+        if (cell == null) {
+            cell = new ArrayList<Set<Pnt>>(2);
+            cells.put(key, cell);
+        }
+        cell.add(segment);
+        levelSizes.put(level, levelSizes.get(level) + 1);
+        addEndpoint(a, 1);
+        addEndpoint(b, 1);
+    }
+
+    /**
+     * @param segment a segment of the PSLG that is no longer one
+     * @return false if the segment was not in the index
+     */
+    boolean remove (Set<Pnt> segment) {
+        Iterator<Pnt> it = segment.iterator();
+        Pnt a = it.next(), b = it.next();
+        int level = level(a, b);
+        Map<Long, List<Set<Pnt>>> cells = levels.get(level);
+        if (cells == null) return false;
+        long key = cellOfMidpoint(a, b, level);
+        List<Set<Pnt>> cell = cells.get(key);
+        if (cell == null || !cell.remove(segment)) return false;
+        if (cell.isEmpty()) cells.remove(key);
+        int size = levelSizes.get(level) - 1;
+        if (size == 0) {
+            levels.remove(level);
+            levelSizes.remove(level);
+        }
+        else levelSizes.put(level, size);
+        addEndpoint(a, -1);
+        addEndpoint(b, -1);
+        return true;
+    }
+
+    /**
+     * @param point the point to test
+     * @return the segments whose diametral circle holds point strictly inside
+     */
+    List<Set<Pnt>> encroached (Pnt point) {
+        List<Set<Pnt>> result = new ArrayList<Set<Pnt>>();
+        double x = point.coord(0), y = point.coord(1);
+        for (Map.Entry<Integer, Map<Long, List<Set<Pnt>>>> entry: levels.entrySet()) {
+            double size = Math.scalb(1.0, entry.getKey() + 1);
+            Map<Long, List<Set<Pnt>>> cells = entry.getValue();
+            // The midpoint of a segment whose circle holds point is less than size/2 away
+            // (with a little slack for rounding in the midpoint):
+            double reach = 0.51*size;
+            long x0 = (long) Math.floor((x - reach) / size), x1 = (long) Math.floor((x + reach) / size);
+            long y0 = (long) Math.floor((y - reach) / size), y1 = (long) Math.floor((y + reach) / size);
+            for (long i = x0; i <= x1; i++)
+                for (long j = y0; j <= y1; j++) {
+                    List<Set<Pnt>> cell = cells.get(key(i, j));
+                    if (cell == null) continue;
+                    for (Set<Pnt> segment: cell) {
+                        Iterator<Pnt> it = segment.iterator();
+                        if (point.vsDiamcircle(it.next(), it.next()) == -1) result.add(segment);
+                    }
+                }
+        }
+        return result;
+    }
+
+    /**
+     * @return true iff vertex is an endpoint of a segment
+     */
+    boolean isEndpoint (Pnt vertex) {
+        return endpoints.containsKey(vertex);
+    }
+
+    private void addEndpoint (Pnt vertex, int count) {
+        Integer old = endpoints.get(vertex);
+        int n = ((old == null)? 0 : old) + count;
+        if (n == 0) endpoints.remove(vertex);
+        else endpoints.put(vertex, n);
+    }
+
+    /**
+     * @return k such that 2^k <= |ab| < 2^(k+1)
+     */
+    private static int level (Pnt a, Pnt b) {
+        double length = Math.hypot(a.coord(0) - b.coord(0), a.coord(1) - b.coord(1));
+        if (length == 0) return Double.MIN_EXPONENT;
+        return Math.getExponent(length);
+    }
+
+    private static long cellOfMidpoint (Pnt a, Pnt b, int level) {
+        double size = Math.scalb(1.0, level + 1);
+        return key((long) Math.floor((a.coord(0) + b.coord(0)) / 2 / size),
+                (long) Math.floor((a.coord(1) + b.coord(1)) / 2 / size));
+    }
+
+    /**
+     * Two cells may share a key (only if the grid is huge); that only adds
+     * candidates, which the exact test then rejects.
+     */
+    private static long key (long i, long j) {
+        return (i << 32) ^ (j & 0xffffffffL);
+    }
+
+}
@@ -0,0 +1,147 @@
+package triangulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Insertion orders for many points at once.
+ *
+ * A biased randomized insertion order (BRIO, Amenta, Choi and Rote) splits a
+ * random permutation of the points into rounds of doubling size: the last
+ * round holds half the points, the one before it a quarter, and so on. Each
+ * round is sorted along a Hilbert curve. The randomness keeps the expected
+ * amount of work of incremental Delaunay insertion optimal, while the curve
+ * makes consecutive points close, so point location walks only a few steps.
+ *
+ */
+public abstract class SpatialSort {
+
+    private final static int order = 15;        // Hilbert grid of 2^order x 2^order cells
+    private final static int minRound = 64;     // Smallest round that is split off
+
+    /**
+     * @param points the points to order
+     * @param random source of randomness for the rounds
+     * @return the points in biased randomized insertion order
+     */
+    public static List<Pnt> brio (Collection<? extends Pnt> points, Random random) {
+        Pnt[] pnts = points.toArray(new Pnt[0]);
+        int n = pnts.length;
+        double[] xs = new double[n], ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = pnts[i].coord(0);
+            ys[i] = pnts[i].coord(1);
+        }
+        int[] permutation = brio(xs, ys, n, random);
+        List<Pnt> result = new ArrayList<Pnt>(n);
+        for (int i = 0; i < n; i++) result.add(pnts[permutation[i]]);
+        return result;
+    }
+
+    /**
+     * @param xs x coordinates of the points
+     * @param ys y coordinates of the points
+     * @param n number of points (the arrays may be longer)
+     * @param random source of randomness for the rounds
+     * @return the indices 0..n-1 in biased randomized insertion order
+     */
+    public static int[] brio (double[] xs, double[] ys, int n, Random random) {
+        int[] permutation = new int[n];
+        for (int i = 0; i < n; i++) permutation[i] = i;
+        brio(xs, 0, ys, 0, 1, permutation, n, random);
+        return permutation;
+    }
+
+    /**
+     * Put the first n entries of permutation in biased randomized insertion
+     * order. Point i lies at (xs[xOffset + stride*i], ys[yOffset + stride*i]),
+     * so packed coordinates x0,y0,x1,y1,... are passed as (xy, 0, xy, 1, 2).
+     * @param permutation indices of the points; reordered in place
+     * @param n number of indices in permutation to order
+     * @param random source of randomness for the rounds
+     */
+    public static void brio (double[] xs, int xOffset, double[] ys, int yOffset,
+            int stride, int[] permutation, int n, Random random) {
+        for (int i = n-1; i > 0; i--) {                 // Shuffle
+            int j = random.nextInt(i+1);
+            int t = permutation[i];
+            permutation[i] = permutation[j];
+            permutation[j] = t;
+        }
+        int end = n;
+        while (end > 0) {                               // Rounds, last to first
+            int start = (end/2 < minRound)? 0 : end/2;
+            hilbertSort(xs, xOffset, ys, yOffset, stride, permutation, start, end);
+            end = start;
+        }
+    }
+
+    /**
+     * Sort permutation[from..to) along a Hilbert curve through the bounding
+     * box of those points.
+     * @param xs x coordinates of the points
+     * @param ys y coordinates of the points
+     * @param permutation indices into xs and ys
+     * @param from first position to sort
+     * @param to one past the last position to sort
+     */
+    public static void hilbertSort (double[] xs, double[] ys, int[] permutation,
+            int from, int to) {
+        hilbertSort(xs, 0, ys, 0, 1, permutation, from, to);
+    }
+
+    /**
+     * Same as hilbertSort(double[], double[], int[], int, int), for point i at
+     * (xs[xOffset + stride*i], ys[yOffset + stride*i]).
+     */
+    public static void hilbertSort (double[] xs, int xOffset, double[] ys, int yOffset,
+            int stride, int[] permutation, int from, int to) {
+        if (to - from < 2) return;
+        double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int k = from; k < to; k++) {
+            int i = permutation[k];
+            double x = xs[xOffset + stride*i], y = ys[yOffset + stride*i];
+            minX = Math.min(minX, x); maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y); maxY = Math.max(maxY, y);
+        }
+        int cells = 1 << order;
+        double scale = (cells - 1) / Math.max(Math.max(maxX - minX, maxY - minY), Double.MIN_VALUE);
+        long[] keys = new long[to - from];              // Hilbert index << 32 | point index
+        for (int k = from; k < to; k++) {
+            int i = permutation[k];
+            int x = (int) ((xs[xOffset + stride*i] - minX) * scale);
+            int y = (int) ((ys[yOffset + stride*i] - minY) * scale);
+            keys[k - from] = (hilbertIndex(x, y) << 32) | i;
+        }
+        Arrays.sort(keys);
+        for (int k = from; k < to; k++) permutation[k] = (int) keys[k - from];
+    }
+
+    /**
+     * @return the position of cell (x,y) along the Hilbert curve
+     */
+    private static long hilbertIndex (int x, int y) {
+        int n = 1 << order;
+        long d = 0;
+        for (int s = n/2; s > 0; s /= 2) {
+            int rx = ((x & s) != 0)? 1 : 0;
+            int ry = ((y & s) != 0)? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {                              // Rotate the quadrant
+                if (rx == 1) {
+                    x = n-1 - x;
+                    y = n-1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+}
@@ -26,9 +26,12 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
- * A Triangle is an immutable Set of exactly three Pnts.
+ * A Triangle is an immutable Set of exactly three Pnts; only the mesh holding
+ * it may replace its vertices, when flipping an edge in place.
  *
  * All Set operations are available. Individual vertices can be accessed via
  * iterator() and also via triangle.get(index).
@@ -46,8 +49,16 @@ public class Triangle extends ArraySet<Pnt> {
 
     private int idNumber;                   // The id number
     private Pnt circumcenter = null;        // The triangle's circumcenter
+    int meshSlot = -1;                      // Slot in the mesh holding it, if any
+    IndexedMesh store = null;               // Mesh holding its vertices instead of itself, if any
+    Triangle[] neighborSlots = null;        // Neighbor opposite each vertex, if in a GraphMesh
+    byte constrainedEdges = 0;              // Bit i: edge opposite vertex i is constrained (GraphMesh)
+    private volatile Object owner = null;   // Insertion holding this triangle (concurrent insertion)
+    int mark = 0;                           // Epoch stamp of a Workspace mark
 
-    private static int idGenerator = 0;     // Used to create id numbers
+    private static AtomicInteger idGenerator = new AtomicInteger();  // Used to create id numbers
+    private static final AtomicReferenceFieldUpdater<Triangle, Object> ownerUpdater =
+        AtomicReferenceFieldUpdater.newUpdater(Triangle.class, Object.class, "owner");
     public static boolean moreInfo = false; // True iff more info in toString
 
     /**
@@ -64,8 +75,8 @@ public class Triangle extends ArraySet<Pnt> {
      */
     public Triangle (Collection<? extends Pnt> collection) {
         super(collection);
-        idNumber = idGenerator++;
-        if (this.size() != 3)
+        idNumber = idGenerator.getAndIncrement();
+        if (super.size() != 3)
             throw new IllegalArgumentException("Triangle must have 3 vertices");
     }
 
@@ -82,8 +93,11 @@ public class Triangle extends ArraySet<Pnt> {
      * @throws NoSuchElementException if no vertex found
      */
     public Pnt getVertexButNot (Pnt... badVertices) {
-        Collection<Pnt> bad = Arrays.asList(badVertices);
-        for (Pnt v: this) if (!bad.contains(v)) return v;
+        search: for (int i = 0; i < 3; i++) {
+            Pnt v = get(i);
+            for (Pnt b: badVertices) if (v.equals(b)) continue search;
+            return v;
+        }
         throw new NoSuchElementException("No vertex found");
     }
 
@@ -95,11 +109,41 @@ public class Triangle extends ArraySet<Pnt> {
      */
     public boolean isNeighbor (Triangle triangle) {
         int count = 0;
-        for (Pnt vertex: this)
-            if (!triangle.contains(vertex)) count++;
+        for (int i = 0; i < 3; i++)
+            if (triangle.indexOf(get(i)) < 0) count++;
         return count == 1;
     }
 
+    @Override
+    public Pnt get (int index) {
+        IndexedMesh mesh = store;
+        if (mesh == null) return super.get(index);
+        if (index < 0 || index > 2) throw new IndexOutOfBoundsException("Index: " + index);
+        return mesh.point(mesh.vertex(meshSlot, index));
+    }
+
+    @Override
+    public int size () {
+        return 3;
+    }
+
+    @Override
+    public boolean contains (Object vertex) {
+        return (vertex instanceof Pnt) && indexOf((Pnt) vertex) >= 0;
+    }
+
+    /**
+     * @param vertex a Pnt
+     * @return the index (for get()) of vertex in this triangle; -1 if absent
+     */
+    public int indexOf (Pnt vertex) {
+        for (int i = 0; i < 3; i++) {
+            Pnt v = get(i);
+            if (v == vertex || v.equals(vertex)) return i;
+        }
+        return -1;
+    }
+
     /**
      * Report the facet opposite vertex.
      * @param vertex a vertex of this Triangle
@@ -117,11 +161,153 @@ public class Triangle extends ArraySet<Pnt> {
      * @return the triangle's circumcenter
      */
     public Pnt getCircumcenter () {
-        if (circumcenter == null)
-            circumcenter = Pnt.circumcenter(this.toArray(new Pnt[0]));
+        if (circumcenter == null) {
+            double[] center = new double[2];
+            Pnt a = get(0), b = get(1), c = get(2);
+            Geometry2D.circumcenter(a.coord(0), a.coord(1), b.coord(0), b.coord(1),
+                    c.coord(0), c.coord(1), center);
+            circumcenter = new Pnt(center);
+        }
         return circumcenter;
     }
 
+    /**
+     * Test if point is outside this triangle; same as Pnt.isOutside(), but
+     * without building a simplex.
+     * @param point the Pnt to test
+     * @return vertex that "witnesses" outsideness (or null if not outside)
+     */
+    public Pnt isOutside (Pnt point) {
+        Pnt a = get(0), b = get(1), c = get(2);
+        double px = point.coord(0), py = point.coord(1);
+        double ax = a.coord(0), ay = a.coord(1);
+        double bx = b.coord(0), by = b.coord(1);
+        double cx = c.coord(0), cy = c.coord(1);
+        double content = Geometry2D.orient2d(ax, ay, bx, by, cx, cy);
+        if (Pnt.side(content, Geometry2D.orient2d(px, py, bx, by, cx, cy)) > 0) return a;
+        if (Pnt.side(content, Geometry2D.orient2d(ax, ay, px, py, cx, cy)) > 0) return b;
+        if (Pnt.side(content, Geometry2D.orient2d(ax, ay, bx, by, px, py)) > 0) return c;
+        return null;
+    }
+
+    /**
+     * Test if point is outside this triangle, like isOutside(Pnt), but test
+     * the edges in the order first, first+1, first+2 (mod 3) and skip the
+     * edge opposite vertex skip. Used by walks that must not go back.
+     * @param point the Pnt to test
+     * @param first index of the vertex opposite the first edge to test
+     * @param skip index of the vertex opposite an edge not to test; -1 for none
+     * @return index of the vertex opposite an edge that separates point from
+     * this triangle; -1 if there is none
+     */
+    public int isOutside (Pnt point, int first, int skip) {
+        double px = point.coord(0), py = point.coord(1);
+        double ax = get(0).coord(0), ay = get(0).coord(1);
+        double bx = get(1).coord(0), by = get(1).coord(1);
+        double cx = get(2).coord(0), cy = get(2).coord(1);
+        double content = Geometry2D.orient2d(ax, ay, bx, by, cx, cy);
+        for (int k = 0; k < 3; k++) {
+            int i = (first + k) % 3;
+            if (i == skip) continue;
+            double area;
+            if (i == 0) area = Geometry2D.orient2d(px, py, bx, by, cx, cy);
+            else if (i == 1) area = Geometry2D.orient2d(ax, ay, px, py, cx, cy);
+            else area = Geometry2D.orient2d(ax, ay, bx, by, px, py);
+            if (Pnt.side(content, area) > 0) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Test if point is on the boundary of this triangle; same as Pnt.isOn().
+     * @param point the Pnt to test
+     * @return the vertex opposite the edge holding point (or null if point is
+     * not on an edge, or is outside)
+     */
+    public Pnt isOn (Pnt point) {
+        Pnt a = get(0), b = get(1), c = get(2);
+        double px = point.coord(0), py = point.coord(1);
+        double ax = a.coord(0), ay = a.coord(1);
+        double bx = b.coord(0), by = b.coord(1);
+        double cx = c.coord(0), cy = c.coord(1);
+        double content = Geometry2D.orient2d(ax, ay, bx, by, cx, cy);
+        int sa = Pnt.side(content, Geometry2D.orient2d(px, py, bx, by, cx, cy));
+        int sb = Pnt.side(content, Geometry2D.orient2d(ax, ay, px, py, cx, cy));
+        int sc = Pnt.side(content, Geometry2D.orient2d(ax, ay, bx, by, px, py));
+        if (sa > 0 || sb > 0 || sc > 0) return null;
+        return (sc == 0)? c : ((sb == 0)? b : ((sa == 0)? a : null));
+    }
+
+    /**
+     * Test relation between point and the circumcircle of this triangle.
+     * @param point the Pnt to test
+     * @return -1, 0, or +1 for inside, on, or outside of circumcircle
+     */
+    public int vsCircumcircle (Pnt point) {
+        return point.vsCircumcircle(get(0), get(1), get(2));
+    }
+
+    /**
+     * Replace a vertex; used by the meshes to flip an edge in place.
+     * @param i the index of the vertex to replace
+     * @param vertex the new vertex, not in this triangle yet
+     */
+    void replaceVertex (int i, Pnt vertex) {
+        replace(i, vertex);
+        circumcenter = null;
+    }
+
+    /**
+     * Let mesh hold the vertices from now on, in slot meshSlot; used by an
+     * IndexedMesh when the triangle is added, so the vertices are stored once.
+     * @param mesh the mesh holding this triangle
+     */
+    void storeIn (IndexedMesh mesh) {
+        store = mesh;
+        dropItems();
+    }
+
+    /**
+     * Hold the vertices again; used by an IndexedMesh before the slot is freed.
+     */
+    void takeBack () {
+        restoreItems(Arrays.asList(get(0), get(1), get(2)));
+        store = null;
+    }
+
+    /**
+     * Forget what depends on the vertices; used by an IndexedMesh that changed
+     * them in place, when flipping an edge.
+     */
+    void verticesChanged () {
+        circumcenter = null;
+    }
+
+    /**
+     * Take this triangle for an insertion, if no other insertion holds it.
+     * @param by the insertion
+     * @return true iff by holds the triangle now
+     */
+    boolean claim (Object by) {
+        return owner == by || ownerUpdater.compareAndSet(this, null, by);
+    }
+
+    /**
+     * @param by the insertion
+     * @return true iff by holds this triangle
+     */
+    boolean isClaimedBy (Object by) {
+        return owner == by;
+    }
+
+    /**
+     * Give this triangle up, if by holds it.
+     * @param by the insertion
+     */
+    void release (Object by) {
+        ownerUpdater.compareAndSet(this, by, null);
+    }
+
     /* The following two methods ensure that a Triangle is immutable */
 
     @Override
@@ -132,9 +318,12 @@ public class Triangle extends ArraySet<Pnt> {
     @Override
     public Iterator<Pnt> iterator () {
         return new Iterator<Pnt>() {
-            private Iterator<Pnt> it = Triangle.super.iterator();
-            public boolean hasNext() {return it.hasNext();}
-            public Pnt next() {return it.next();}
+            private int next = 0;
+            public boolean hasNext() {return next < 3;}
+            public Pnt next() {
+                if (next >= 3) throw new NoSuchElementException();
+                return get(next++);
+            }
             public void remove() {throw new UnsupportedOperationException();}
         };
     }
@@ -143,7 +332,7 @@ public class Triangle extends ArraySet<Pnt> {
 
     @Override
     public int hashCode () {
-        return (int)(idNumber^(idNumber>>>32));
+        return idNumber;
     }
 
     @Override
@@ -152,10 +341,8 @@ public class Triangle extends ArraySet<Pnt> {
     }
     
     public double getMinAngle(){
-    	double minAngle = (this.get(0).subtract(this.get(1))).angle(this.get(0).subtract(this.get(2)));
-    	minAngle = Math.min(minAngle,(this.get(1).subtract(this.get(0))).angle(this.get(1).subtract(this.get(2))));
-    	minAngle = Math.min(minAngle,(this.get(2).subtract(this.get(1))).angle(this.get(2).subtract(this.get(0))));
-    	return minAngle;    	
+    	Pnt a = this.get(0), b = this.get(1), c = this.get(2);
+    	return Geometry2D.minAngle(a.coord(0), a.coord(1), b.coord(0), b.coord(1), c.coord(0), c.coord(1));
     }
 	public Pnt getMaxAnglePoint() {
 		Pnt pnt = this.get(0);
@@ -170,7 +357,8 @@ public class Triangle extends ArraySet<Pnt> {
 		return pnt;
 	}
     public double getSurfaceArea(){
-    	return Math.abs((this.get(0).subtract(this.get(1))).cross_z(this.get(0).subtract(this.get(2))))/2;
+    	Pnt a = this.get(0), b = this.get(1), c = this.get(2);
+    	return Geometry2D.area(a.coord(0), a.coord(1), b.coord(0), b.coord(1), c.coord(0), c.coord(1));
     }
     
     public static void main(String[] args){
@@ -0,0 +1,106 @@
+package triangulation;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Storage for the triangles of a Triangulation and the adjacency between them.
+ *
+ * The Triangulation only talks to its triangles through this interface, so the
+ * way the mesh is stored can be chosen when the Triangulation is constructed
+ * (see MeshBackends). The algorithms never see the store directly.
+ *
+ */
+public interface TriangleMesh extends Iterable<Triangle> {
+
+    /**
+     * Add a triangle. If the triangle is already in the mesh then no change.
+     * @param triangle the triangle to add
+     */
+    public void add (Triangle triangle);
+
+    /**
+     * Remove a triangle and any links that use it. If the triangle is not in
+     * the mesh, nothing happens.
+     * @param triangle the triangle to remove
+     */
+    public void remove (Triangle triangle);
+
+    /**
+     * Link two triangles which share a facet.
+     * @param triangleA one end of the link
+     * @param triangleB the other end of the link
+     */
+    public void addLink (Triangle triangleA, Triangle triangleB);
+
+    /**
+     * Flip the edge opposite vertex i of triangle, in place: triangle and the
+     * neighbor across the edge keep their identity (and their other links),
+     * but their vertices are changed to use the other diagonal of the
+     * quadrilateral they form. If triangle was (p,a,b) at indices (i,i+1,i+2)
+     * and the neighbor has vertex q opposite the edge, triangle becomes (p,a,q)
+     * at the same indices, and in the neighbor a is replaced by p.
+     * Constrained marks of the outer edges move with the edges.
+     * @param triangle a triangle of this mesh
+     * @param i 0, 1 or 2; the edge must have a neighbor, must not be
+     * constrained, and the quadrilateral must be convex
+     */
+    public void flip (Triangle triangle, int i);
+
+    /**
+     * @param triangle a triangle of this mesh
+     * @return the (unmodifiable) set of triangles adjacent to triangle
+     */
+    public Set<Triangle> neighbors (Triangle triangle);
+
+    /**
+     * @param site a vertex of triangle
+     * @param triangle a triangle of this mesh
+     * @return the neighbor opposite site in triangle; null if none
+     * @throws IllegalArgumentException if site is not in triangle
+     */
+    public Triangle neighborOpposite (Pnt site, Triangle triangle);
+
+    /**
+     * @param triangle a triangle of this mesh
+     * @param i 0, 1 or 2
+     * @return true iff the edge of triangle opposite its i-th vertex is
+     * constrained (part of the PSLG)
+     */
+    public boolean isConstrained (Triangle triangle, int i);
+
+    /**
+     * Mark or unmark the edge of triangle opposite its i-th vertex as
+     * constrained, on both sides of the edge. A triangle linked (addLink)
+     * across a constrained edge inherits the mark.
+     * @param triangle a triangle of this mesh
+     * @param i 0, 1 or 2
+     * @param constrained the new status of the edge
+     */
+    public void setConstrained (Triangle triangle, int i, boolean constrained);
+
+    /**
+     * @param triangle the object to check for membership
+     * @return true iff triangle is a member of this mesh
+     */
+    public boolean contains (Object triangle);
+
+    /**
+     * @param random the source of randomness
+     * @return a triangle of this mesh, chosen uniformly at random; null if
+     * the mesh is empty
+     */
+    public Triangle sample (Random random);
+
+    /**
+     * @return the number of triangles in this mesh
+     */
+    public int size ();
+
+    /**
+     * @return an iterator over all triangles; remove() is not supported
+     */
+    public Iterator<Triangle> iterator ();
+
+}
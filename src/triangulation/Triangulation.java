@@ -24,14 +24,22 @@ import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import triangulation.delaunay.SizingFunction;
 import triangulation.delaunay.algorithms.BowyerWatson;
+import triangulation.delaunay.algorithms.ConcurrentDelaunayAlgorithm;
 import triangulation.delaunay.algorithms.DelaunayAlgorithm;
+import triangulation.delaunay.algorithms.StaticDelaunayAlgorithm;
 import triangulation.delaunay.refineAlgorithms.DelaunayRefineAlgorithm;
 
 /**
@@ -60,10 +68,23 @@ public class Triangulation extends AbstractSet<Triangle> {
 
     private Triangle mostRecent = null;      	// Most recently "active" triangle
     private Triangle initialTriangle;			// Initial triangle
-    private Graph<Triangle> triGraph;        	// Holds triangles for navigation
+    private TriangleMesh triMesh;        		// Holds triangles for navigation
     private Set<Pnt> pointList;					// List of all points
     private Set<Set<Pnt>> boundary_PSLG;		// Holds the facets which form a boundary and thus may not be altered
+    											// (the mesh flags the same facets, see isPSLG(Triangle,int))
+    private SegmentIndex segmentIndex;			// The same facets, by location (see obtainEncroachedSegments)
     private DelaunayAlgorithm algorithm = null;	// The algorithm to use for the triangulation
+    private LocateStrategies locateStrategy = LocateStrategies.Walk; // How locate() finds a triangle
+    private Random random = new Random(0);		// For jump-and-walk sampling and the stochastic walk
+    private long locateCalls = 0;				// Number of calls to locate()
+    private long walkSteps = 0;					// Number of triangles visited by locate()
+    private DelaunayHierarchy hierarchy = null;	// Upper levels for LocateStrategies.Hierarchy
+    private Map<Pnt, Triangle> vertexHints = null; // Vertex -> a triangle using it (if kept)
+    private ReentrantReadWriteLock meshLock = null; // Guards the mesh in concurrent insertion mode
+    private Workspace workspace;				// Scratch space for the algorithms
+    private ThreadLocal<Workspace> threadWorkspaces = null; // Per-thread scratch space in concurrent insertion mode
+    private List<MeshListener> listeners = null; // See addMeshListener; null if there are none
+    private MeshChanges changes = null;			// Changes of the current batch; only recorded while there are listeners
     
     // TODO: Do this neatly. 
     // Best method is a point-eating-virus, but Lawson's DelaunayRemover method must work first.
@@ -71,13 +92,26 @@ public class Triangulation extends AbstractSet<Triangle> {
    // private Pnt[] OuterBound = new Pnt[]{null, null};
     /**
      * All sites must fall within the initial triangle.
+     * The triangles are stored in a Graph (see MeshBackends).
      * @param triangle the initial triangle
      * @param algorithmIn is the default algorithm to be used for triangulation
      */
     public Triangulation (Triangle triangle, DelaunayAlgorithm algorithmIn) {
+    	this(triangle, algorithmIn, MeshBackends.Graph);
+    }
+
+    /**
+     * All sites must fall within the initial triangle.
+     * @param triangle the initial triangle
+     * @param algorithmIn is the default algorithm to be used for triangulation
+     * @param backend determines how the triangles are stored
+     */
+    public Triangulation (Triangle triangle, DelaunayAlgorithm algorithmIn, MeshBackends backend) {
     	algorithm = algorithmIn;
-        triGraph = new Graph<Triangle>();
+        triMesh = backend.createMesh();
+        workspace = new Workspace(triMesh, false);
         boundary_PSLG = new HashSet<Set<Pnt>>();
+        segmentIndex = new SegmentIndex();
         pointList = new LinkedHashSet<Pnt>();
         addToGraph(triangle);
         initialTriangle = triangle;
@@ -87,12 +121,12 @@ public class Triangulation extends AbstractSet<Triangle> {
 
     @Override
     public Iterator<Triangle> iterator () {
-        return triGraph.nodeSet().iterator();
+        return triMesh.iterator();
     }
 
     @Override
     public int size () {
-        return triGraph.nodeSet().size();
+        return triMesh.size();
     }
 
     @Override
@@ -106,7 +140,13 @@ public class Triangulation extends AbstractSet<Triangle> {
      * @param triangle the object to check for membership
      */
     public boolean contains (Object triangle) {
-        return triGraph.nodeSet().contains(triangle);
+    	if(meshLock == null) return triMesh.contains(triangle);
+    	meshLock.readLock().lock();					//See enableConcurrentInsertion()
+    	try{
+    		return triMesh.contains(triangle);
+    	}finally{
+    		meshLock.readLock().unlock();
+    	}
     }
     
     /**
@@ -116,6 +156,93 @@ public class Triangulation extends AbstractSet<Triangle> {
     public void changeAlgorithm(DelaunayAlgorithm alg){
     	algorithm = alg;
     }
+    
+    /**
+     * @param strategy the way locate() finds the triangle holding a point from now on
+     */
+    public void changeLocateStrategy(LocateStrategies strategy){
+    	locateStrategy = strategy;
+    	if(strategy == LocateStrategies.Hierarchy){
+    		if(hierarchy == null){
+    			enableVertexHints();
+    			hierarchy = new DelaunayHierarchy(this);
+    		}
+    	}else{
+    		hierarchy = null;
+    		vertexHints = null;
+    	}
+    }
+    
+    /**
+     * @return the number of locate() calls and the number of triangles they
+     * visited, since the last resetLocateCounters()
+     */
+    public String obtainLocateCounters(){
+    	return locateStrategy + ": " + locateCalls + " calls, " + walkSteps + " steps ("
+    			+ String.format("%.1f", (locateCalls == 0)? 0d : (double)walkSteps/locateCalls) + " per call)"
+    			+ ((hierarchy == null)? "" : ", " + hierarchy.walkSteps() + " steps in upper levels");
+    }
+    
+    public long obtainWalkSteps(){
+    	return walkSteps;
+    }
+    
+    public void resetLocateCounters(){
+    	locateCalls = 0;
+    	walkSteps = 0;
+    }
+
+    /**
+     * From now on, report the changes to the mesh to listener, in batches (see MeshListener).
+     * Refinement uses this to evaluate only the triangles that changed.
+     * Changes are only recorded while there are listeners, so otherwise they cost nothing.
+     * @param listener the listener to add
+     */
+    public void addMeshListener(MeshListener listener){
+    	if(listeners == null){
+    		listeners = new ArrayList<MeshListener>(1);
+    		changes = new MeshChanges();
+    	}
+    	listeners.add(listener);
+    }
+
+    /**
+     * Stop reporting changes to listener.
+     * @param listener a listener that was added before
+     */
+    public void removeMeshListener(MeshListener listener){
+    	if(listeners == null) return;
+    	listeners.remove(listener);
+    	if(listeners.isEmpty()){
+    		listeners = null;
+    		changes = null;
+    	}
+    }
+
+    /**
+     * Report the changes recorded since the last batch to the listeners, if any.
+     * Public operations call this when they are done.
+     */
+    private void fireMeshChanged(){
+    	if(changes == null || changes.isEmpty()) return;
+    	MeshChanges batch = changes;
+    	batch.prepare(triMesh);
+    	try{
+    		for(MeshListener listener : new ArrayList<MeshListener>(listeners))
+    			listener.meshChanged(batch);
+    	}finally{
+    		batch.clear();
+    	}
+    }
+
+    /**
+     * @return the scratch space for the algorithms working on this triangulation
+     * (one per thread in concurrent insertion mode)
+     */
+    public Workspace obtainWorkspace(){
+    	if(threadWorkspaces != null) return threadWorkspaces.get();
+    	return workspace;
+    }
 
     /**
      * Report neighbor opposite the given vertex of triangle.
@@ -125,12 +252,7 @@ public class Triangulation extends AbstractSet<Triangle> {
      * @throws IllegalArgumentException if site is not in this triangle
      */
     public Triangle neighborOpposite (Pnt site, Triangle triangle) {
-        if (!triangle.contains(site))
-            throw new IllegalArgumentException("Bad vertex; not in triangle");
-        for (Triangle neighbor: triGraph.neighbors(triangle)) {
-            if (!neighbor.contains(site)) return neighbor;
-        }
-        return null;
+        return triMesh.neighborOpposite(site, triangle);
     }
 
     /**
@@ -139,7 +261,7 @@ public class Triangulation extends AbstractSet<Triangle> {
      * @return the neighbors of triangle
      */
     public Set<Triangle> neighbors(Triangle triangle) {
-        return triGraph.neighbors(triangle);
+        return triMesh.neighbors(triangle);
     }
 
     /**
@@ -148,26 +270,31 @@ public class Triangulation extends AbstractSet<Triangle> {
      * @return the triangle that holds point; null if no such triangle
      */
     public Triangle locate (Pnt point) {
+    	locateCalls++;
+    	if (locateStrategy == LocateStrategies.JumpAndWalk) return jumpAndWalk(point);
+    	if (locateStrategy == LocateStrategies.Hierarchy) return stochasticWalk(point, hierarchy.start(point));
         Triangle triangle = mostRecent;
         if (!this.contains(triangle)) triangle = null; //Triangle was removed from the triangulation for-some-reason.
 
         // Try a directed walk (this works fine in 2D, but can fail in 3D)
-        Set<Triangle> visited = new HashSet<Triangle>();
+        Workspace visited = obtainWorkspace();
+        visited.newEpoch();
         while (triangle != null) {
-            if (visited.contains(triangle)) { // This should never happen
+            if (visited.isMarked(triangle)) { // This should never happen
                 System.out.println("Warning: Caught in a locate loop");
                 break;
             }
-            visited.add(triangle);
+            visited.mark(triangle);
+            walkSteps++;
             // Corner opposite point
-            Pnt corner = point.isOutside(triangle.toArray(new Pnt[0]));
+            Pnt corner = triangle.isOutside(point);
             if (corner == null) return triangle;
             triangle = this.neighborOpposite(corner, triangle);
         }
         // No luck; try brute force
         System.out.println("Warning: Checking all triangles for " + point);
         for (Triangle tri: this) {
-            if (point.isOutside(tri.toArray(new Pnt[0])) == null) return tri;
+            if (tri.isOutside(point) == null) return tri;
         }
         // No such triangle
         System.out.println("Warning: No triangle holds " + point);
@@ -175,15 +302,383 @@ public class Triangulation extends AbstractSet<Triangle> {
     }
     
     /**
-     * Add multiple sites at the same time, e.g. when loading from a file
+     * Make the next walk of locate() start at triangle, e.g. when the next site is known
+     * to be near it. Has no effect if triangle is not in the triangulation.
+     * @param triangle a triangle near the point that will be located next
+     */
+    public void hintLocate (Triangle triangle) {
+    	if (triMesh.contains(triangle)) mostRecent = triangle;
+    }
+    
+    /**
+     * Jump-and-walk: look at about n^(1/3) random triangles (and mostRecent),
+     * then walk from the one with a vertex closest to point.
+     * @param point the point to locate
+     * @return the triangle that holds point; null if no such triangle
+     */
+    private Triangle jumpAndWalk (Pnt point) {
+    	double px = point.coord(0), py = point.coord(1);
+    	Triangle start = null;
+    	double best = Double.POSITIVE_INFINITY;
+    	if (mostRecent != null && triMesh.contains(mostRecent)) {
+    		start = mostRecent;
+    		best = distanceSquared(start.get(0), px, py);
+    	}
+    	int samples = (int) Math.cbrt(triMesh.size());
+    	for (int k = 0; k < samples; k++) {
+    		Triangle candidate = triMesh.sample(random);
+    		double distance = distanceSquared(candidate.get(0), px, py);
+    		if (distance < best) {
+    			best = distance;
+    			start = candidate;
+    		}
+    	}
+    	if (start == null) start = triMesh.sample(random);
+    	return stochasticWalk(point, start);
+    }
+    
+    private static double distanceSquared (Pnt vertex, double px, double py) {
+    	double dx = vertex.coord(0) - px, dy = vertex.coord(1) - py;
+    	return dx*dx + dy*dy;
+    }
+    
+    /**
+     * Remembering stochastic walk: cross an edge that separates the point from
+     * the current triangle, testing the edges in random order and never the edge
+     * just crossed. The random order makes the walk terminate, also in meshes that
+     * are not Delaunay, so no visited set is needed.
+     * @param point the point to locate
+     * @param triangle the triangle to start from
+     * @return the triangle that holds point; null if the walk leaves the mesh
+     */
+    Triangle stochasticWalk (Pnt point, Triangle triangle) {
+    	int skip = -1;
+    	while (triangle != null) {
+    		walkSteps++;
+    		int i = triangle.isOutside(point, random.nextInt(3), skip);
+    		if (i < 0) return triangle;
+    		Triangle next = triMesh.neighborOpposite(triangle.get(i), triangle);
+    		if (next == null) break;
+    		skip = -1;
+    		for (int j = 0; j < 3; j++)       // The vertex of next across the edge
+    			if (triangle.indexOf(next.get(j)) < 0) skip = j;
+    		triangle = next;
+    	}
+    	System.out.println("Warning: No triangle holds " + point);
+    	return null;
+    }
+    
+    /**
+     * @return some triangle of the triangulation: mostRecent if it still exists
+     */
+    Triangle anyTriangle () {
+    	if (mostRecent != null && triMesh.contains(mostRecent)) return mostRecent;
+    	return triMesh.sample(random);
+    }
+    
+    /**
+     * From now on, remember for each vertex a triangle that uses it (see vertexHint).
+     */
+    void enableVertexHints () {
+    	vertexHints = new HashMap<Pnt, Triangle>();
+    	for (Triangle triangle: triMesh)
+    		for (Pnt vertex: triangle) vertexHints.put(vertex, triangle);
+    }
+    
+    /**
+     * @param vertex a vertex of the triangulation
+     * @return a triangle that has vertex as a corner; null if not known
+     */
+    Triangle vertexHint (Pnt vertex) {
+    	Triangle triangle = vertexHints.get(vertex);
+    	if (triangle == null || !triMesh.contains(triangle)) return null;
+    	return triangle;
+    }
+    
+    /**
+     * From now on, allow delaunayPlace(Pnt) to be called by several threads at once.
+     * Each insertion finds its cavity while the mesh is shared with the other insertions
+     * (the expensive part: locating the site and testing circumcircles), then claims the
+     * cavity and the triangles around it. If another insertion holds one of them, it gives
+     * up its claims and starts over. Otherwise no other insertion can touch its region, so
+     * the cavity stays valid, and it is filled while the mesh is briefly held exclusively.
+     * 
+     * Only delaunayPlace(Pnt), delaunayPlace(Pnt, Triangle) and splitBoundary(Set, Triangle)
+     * may be called concurrently; they locate sites by jump-and-walk. Splitting a segment
+     * claims the triangles on it and around it, like an insertion. Also contains(Object) and
+     * obtainEncroachedSegments(Pnt) may be called: they wait while the mesh is held.
+     * @throws IllegalStateException if the algorithm is not a ConcurrentDelaunayAlgorithm
+     */
+    public void enableConcurrentInsertion(){
+    	if(!supportsConcurrentInsertion())
+    		throw new IllegalStateException("Algorithm does not support concurrent insertion");
+    	meshLock = new ReentrantReadWriteLock();
+    	threadWorkspaces = new ThreadLocal<Workspace>(){
+    		@Override
+    		protected Workspace initialValue(){
+    			return new Workspace(triMesh, true);
+    		}
+    	};
+    }
+    
+    /**
+     * Go back to insertion by one thread at a time, e.g. to split segments of the PSLG.
+     * No concurrent insertion may be running.
+     */
+    public void disableConcurrentInsertion(){
+    	meshLock = null;
+    	threadWorkspaces = null;
+    }
+    
+    /**
+     * @return true iff enableConcurrentInsertion() can be used with the current algorithm
+     */
+    public boolean supportsConcurrentInsertion(){
+    	return algorithm instanceof ConcurrentDelaunayAlgorithm;
+    }
+    
+    /**
+     * Concurrent version of delaunayPlace(Pnt, Triangle); see enableConcurrentInsertion().
+     * @param site a site within the bounds
+     * @param origin see delaunayPlace(Pnt, Triangle); may be null
+     * @return false iff origin is given and is no longer in the triangulation
+     */
+    private boolean placeConcurrently(Pnt site, Triangle origin){
+    	ConcurrentDelaunayAlgorithm alg = (ConcurrentDelaunayAlgorithm) algorithm;
+    	Object owner = new Object();					//Identifies this insertion
+    	List<Triangle> claimed = new ArrayList<Triangle>();
+    	long[] steps = new long[1];
+    	while(true){
+    		Set<Triangle> cavity;
+    		meshLock.readLock().lock();
+    		try{
+    			if(pointList.contains(site)) return true;
+    			Triangle triangle = walkConcurrently(site, origin, steps);
+    			if(triangle == null)
+    				throw new IllegalArgumentException("No containing triangle");
+    			if(triangle.contains(site)) return true;
+    			cavity = alg.findCavity(site, triangle, this);
+    			if(origin != null && !cavity.contains(origin)) return false; //Origin is gone
+    			if(!claimRegion(cavity, owner, claimed)) cavity = null;
+    		}finally{
+    			meshLock.readLock().unlock();
+    		}
+    		if(cavity == null){							//Conflict: try again
+    			Thread.yield();
+    			continue;
+    		}
+    		meshLock.writeLock().lock();
+    		try{
+    			alg.fillCavity(site, cavity, this);
+    			pointList.add(site);
+    			if(changes != null) changes.vertexInserted(site);
+    			if(hierarchy != null) hierarchy.insert(site);
+    			locateCalls++;
+    			walkSteps += steps[0];
+    			fireMeshChanged();					//Still holding the mesh
+    		}finally{
+    			for(Triangle t : claimed) t.release(owner);
+    			meshLock.writeLock().unlock();
+    		}
+    		return true;
+    	}
+    }
+    
+    /**
+     * Claim the cavity and its neighbours for owner. On failure nothing stays claimed.
+     * @param claimed gets the claimed triangles
+     * @return true iff all were claimed
+     */
+    private boolean claimRegion(Set<Triangle> cavity, Object owner, List<Triangle> claimed){
+    	claimed.clear();
+    	boolean success = true;
+    	search: for(Triangle triangle : cavity){
+    		for(int i = -1; i < 3; i++){
+    			Triangle t = (i < 0)? triangle : triMesh.neighborOpposite(triangle.get(i), triangle);
+    			if(t == null || t.isClaimedBy(owner)) continue;
+    			if(!t.claim(owner)){
+    				success = false;
+    				break search;
+    			}
+    			claimed.add(t);
+    		}
+    	}
+    	if(!success){
+    		for(Triangle t : claimed) t.release(owner);
+    		claimed.clear();
+    	}
+    	return success;
+    }
+    
+    /**
+     * Jump-and-walk that only reads shared state, for concurrent insertion.
+     * @param start a triangle near point to walk from (no jump), or null
+     * @param steps steps[0] is increased by the number of triangles visited
+     * @return the triangle that holds point; null if no such triangle
+     */
+    private Triangle walkConcurrently(Pnt point, Triangle start, long[] steps){
+    	Random random = ThreadLocalRandom.current();
+    	double px = point.coord(0), py = point.coord(1);
+    	Triangle triangle = null;
+    	double best = Double.POSITIVE_INFINITY;
+    	if (mostRecent != null && triMesh.contains(mostRecent)) {
+    		triangle = mostRecent;
+    		best = distanceSquared(triangle.get(0), px, py);
+    	}
+    	int samples = (int) Math.cbrt(triMesh.size());
+    	if (start != null && triMesh.contains(start)) {
+    		triangle = start;
+    		samples = 0;
+    	}
+    	for (int k = 0; k < samples; k++) {
+    		Triangle candidate = triMesh.sample(random);
+    		double distance = distanceSquared(candidate.get(0), px, py);
+    		if (distance < best) {
+    			best = distance;
+    			triangle = candidate;
+    		}
+    	}
+    	if (triangle == null) triangle = triMesh.sample(random);
+    	int skip = -1;
+    	while (triangle != null) {
+    		steps[0]++;
+    		int i = triangle.isOutside(point, random.nextInt(3), skip);
+    		if (i < 0) return triangle;
+    		Triangle next = triMesh.neighborOpposite(triangle.get(i), triangle);
+    		if (next == null) break;
+    		skip = -1;
+    		for (int j = 0; j < 3; j++)
+    			if (triangle.indexOf(next.get(j)) < 0) skip = j;
+    		triangle = next;
+    	}
+    	return null;
+    }
+    
+    /**
+     * Add multiple sites at the same time, e.g. when loading from a file.
+     * The sites are inserted in biased randomized insertion order (see SpatialSort),
+     * so each site is close to the one before it. If the triangulation is still empty
+     * and the algorithm is a StaticDelaunayAlgorithm, it triangulates all sites at once.
      * 
      * @author Kevin van As
      * @param sites
      */
     public void delaunayPlace(Set<Pnt> sites){
-		for(Pnt site : sites){
-			delaunayPlace(site);
+    	if(algorithm instanceof StaticDelaunayAlgorithm && pointList.isEmpty()){
+    		List<Pnt> inside = new ArrayList<Pnt>(sites.size());
+    		for(Pnt site : sites) if(isInBounds(site)) inside.add(site);
+    		placeStatic(inside);
+    		return;
+    	}
+		for(Pnt site : SpatialSort.brio(sites, random)){
+			placeSite(site, null);
 		}
+		if(meshLock == null) fireMeshChanged();
+    }
+    
+    /**
+     * Add count sites given as packed coordinates x0,y0,x1,y1,...
+     * Same as delaunayPlace(Set<Pnt>), but no Set of Pnts has to be built first:
+     * duplicates and sites outside the bounds are dropped in one pass over the arrays,
+     * and a Pnt is only made for a site when it is inserted.
+     * 
+     * @param xy the packed coordinates; not modified
+     * @param count the number of sites in xy
+     * @return the number of sites that were added
+     */
+    public int delaunayPlace(double[] xy, int count){
+    	return placeAll(xy, 0, xy, 1, 2, count);
+    }
+    
+    /**
+     * Same as delaunayPlace(double[], int), for separate coordinate arrays.
+     * 
+     * @param xs the x coordinates; not modified
+     * @param ys the y coordinates; not modified
+     * @param count the number of sites
+     * @return the number of sites that were added
+     */
+    public int delaunayPlace(double[] xs, double[] ys, int count){
+    	return placeAll(xs, 0, ys, 0, 1, count);
+    }
+    
+    /**
+     * Insert the sites (xs[xOffset + stride*i], ys[yOffset + stride*i]) for i < count.
+     * The arrays are only read: the sites that are kept are compacted into a permutation
+     * of their indices, which is then put in insertion order.
+     * @return the number of sites that were added
+     */
+    private int placeAll(double[] xs, int xOffset, double[] ys, int yOffset, int stride, int count){
+    	double minX = OuterBound[0].coord(0), maxX = OuterBound[1].coord(0);
+    	double minY = OuterBound[0].coord(1), maxY = OuterBound[1].coord(1);
+    	
+    	//Drop duplicates (open addressing on the coordinates) and sites out of bounds,
+    	//keeping the indices of the others:
+    	int mask = Integer.highestOneBit(Math.max(2*count, 2))*2 - 1;
+    	int[] table = new int[mask+1];
+    	Arrays.fill(table, -1);
+    	int[] kept = new int[count];
+    	int n = 0;
+    	for(int i = 0; i < count; i++){
+    		double x = xs[xOffset + stride*i], y = ys[yOffset + stride*i];
+    		if(!(x >= minX && x <= maxX && y >= minY && y <= maxY)) continue; //Also drops NaN
+    		long bits = Double.doubleToLongBits(x + 0.0) * 31 + Double.doubleToLongBits(y + 0.0); //+0.0: -0.0 == 0.0
+    		int h = (int)(bits ^ (bits >>> 29) ^ (bits >>> 41)) & mask;
+    		boolean duplicate = false;
+    		for(; table[h] >= 0; h = (h+1) & mask){
+    			int j = table[h];
+    			if(xs[xOffset + stride*j] == x && ys[yOffset + stride*j] == y){
+    				duplicate = true;
+    				break;
+    			}
+    		}
+    		if(duplicate) continue;
+    		table[h] = i;
+    		kept[n++] = i;
+    	}
+    	table = null;
+    	
+    	if(algorithm instanceof StaticDelaunayAlgorithm && pointList.isEmpty()){
+    		List<Pnt> sites = new ArrayList<Pnt>(n);
+    		for(int k = 0; k < n; k++) sites.add(new Pnt(xs[xOffset + stride*kept[k]], ys[yOffset + stride*kept[k]]));
+    		kept = null;
+    		placeStatic(sites);
+    		return n;
+    	}
+    	
+    	boolean wasEmpty = pointList.isEmpty(); //Then the sites are all new: no need to look them up
+    	SpatialSort.brio(xs, xOffset, ys, yOffset, stride, kept, n, random);
+    	int added = 0;
+    	for(int k = 0; k < n; k++){
+    		Pnt site = new Pnt(xs[xOffset + stride*kept[k]], ys[yOffset + stride*kept[k]]);
+    		if(!wasEmpty && pointList.contains(site)) continue;
+    		algorithm.delaunayPlace(site,this);
+    		pointList.add(site);
+    		if(changes != null) changes.vertexInserted(site);
+    		if(hierarchy != null) hierarchy.insert(site);
+    		added++;
+    	}
+    	if(debugGraph)isGraphStillCorrect("delaunayPlace");
+    	fireMeshChanged();
+    	return added;
+    }
+    
+    /**
+     * Triangulate all sites at once, using the StaticDelaunayAlgorithm.
+     * @param sites distinct sites, all in bounds; the triangulation must be empty
+     */
+    private void placeStatic(List<Pnt> sites){
+    	((StaticDelaunayAlgorithm) algorithm).delaunayPlace(sites, this);
+    	pointList.addAll(sites);
+    	if(changes != null) for(Pnt site : sites) changes.vertexInserted(site);
+    	if(hierarchy != null) for(Pnt site : sites) hierarchy.insert(site);
+    	if(debugGraph)isGraphStillCorrect("delaunayPlace");
+    	fireMeshChanged();
+    }
+    
+    private boolean isInBounds(Pnt site){
+    	return site.coord(0) >= OuterBound[0].coord(0) && site.coord(0) <= OuterBound[1].coord(0)
+    			&& site.coord(1) >= OuterBound[0].coord(1) && site.coord(1) <= OuterBound[1].coord(1);
     }
     
     /**
@@ -197,6 +692,40 @@ public class Triangulation extends AbstractSet<Triangle> {
      */
     public boolean delaunayPlace (Pnt site) {
     	//System.out.println("(Triangulation) delaunayPlace begins.");
+    	boolean success = placeSite(site, null);
+    	if(meshLock == null) fireMeshChanged(); //placeConcurrently reports its own changes
+    	return success;
+    }
+    
+    /**
+     * Adds site for the sake of origin, e.g. the circumcenter of a bad triangle, but only
+     * if origin is still in the triangulation. In concurrent insertion mode, the test and
+     * the insertion are one step: no other thread can remove origin in between.
+     * Also, origin is where the search for site starts.
+     * 
+     * @param site a site in the circumcircle of origin
+     * @param origin a triangle that was in the triangulation
+     * @return false if origin is gone or site is out of bounds
+     */
+    public boolean delaunayPlace (Pnt site, Triangle origin) {
+    	boolean success = placeSite(site, origin);
+    	if(meshLock == null) fireMeshChanged();
+    	return success;
+    }
+    
+    /**
+     * delaunayPlace(Pnt, Triangle), without reporting the changes to the listeners.
+     * @param origin may be null
+     */
+    private boolean placeSite (Pnt site, Triangle origin) {
+    	if(meshLock != null){
+    		if(!isInBounds(site)) return false;
+    		return placeConcurrently(site, origin);
+    	}
+    	if(origin != null){
+    		if(!triMesh.contains(origin)) return false;
+    		mostRecent = origin;
+    	}
     	if(pointList.contains(site)) return true;
     	if(//OuterBound[0] == null || OuterBound[1] == null ||
     			site.coord(0) < OuterBound[0].coord(0) || site.coord(0) > OuterBound[1].coord(0) || 
@@ -204,6 +733,8 @@ public class Triangulation extends AbstractSet<Triangle> {
     		return false;
     	algorithm.delaunayPlace(site,this);
     	pointList.add(site);  
+    	if(changes != null) changes.vertexInserted(site);
+    	if(hierarchy != null) hierarchy.insert(site);
     	
     	if(debugGraph)isGraphStillCorrect("delaunayPlace");
     	return true;
@@ -230,16 +761,19 @@ public class Triangulation extends AbstractSet<Triangle> {
 		facet.add(site);
 		facet.add(old_site);
 		if(debug)System.out.println("(Triangulation) " + facet.toString());
-		boundary_PSLG.add(facet);
+		addSegment(facet);
     	boolean success = algorithm.delaunayPlaceBoundary(site,old_site,this);
     	if(!success){
     		//Fail!
-    		boundary_PSLG.remove(facet);
+    		removeSegment(facet);
     	}else{
     		//Success!
         	pointList.add(site);    		
+        	if(changes != null) changes.vertexInserted(site);
+        	if(hierarchy != null) hierarchy.insert(site);
     	}
     	if(debug)isGraphStillCorrect("delaunayPlaceBoundary");
+    	fireMeshChanged();
     	
     	return success;
 	}
@@ -253,24 +787,106 @@ public class Triangulation extends AbstractSet<Triangle> {
 	public void splitBoundary(Set<Pnt> segmentAB) {
 		Pnt[] segmentAB_ar = segmentAB.toArray(new Pnt[0]);			
 		Pnt pntC = segmentAB_ar[0].midPoint(segmentAB_ar[1]);
+		recordSplit(segmentAB, pntC);
+    	pointList.add(pntC);
+    	if(changes != null) changes.vertexInserted(pntC);
+		algorithm.splitBoundary(segmentAB, this);
+		if(hierarchy != null) hierarchy.insert(pntC);
+		
+    	if(debug)isGraphStillCorrect("splitBoundary");
+    	fireMeshChanged();
+	}
+	
+	/**
+	 * splitBoundary(Set), for the sake of a triangle near the segment, e.g. a bad triangle
+	 * whose circumcenter encroaches it. In concurrent insertion mode, several threads may
+	 * split segments and insert sites at once (see enableConcurrentInsertion()).
+	 * 
+	 * @param segmentAB a segment that was in the PSLG
+	 * @param near a triangle near the segment, where the search for it starts; may be null
+	 * @return false iff segmentAB is no longer a segment of the PSLG, e.g. another thread split it
+	 */
+	public boolean splitBoundary(Set<Pnt> segmentAB, Triangle near) {
+		if(meshLock != null) return splitConcurrently(segmentAB, near);
+		if(!isPSLG(segmentAB)) return false;
+		if(near != null) hintLocate(near);
+		splitBoundary(segmentAB);
+		return true;
+	}
+	
+	/**
+	 * Concurrent version of splitBoundary(Set, Triangle): the cavity of the midpoint is found
+	 * and claimed like in placeConcurrently. The triangles on the segment are in it, so no other
+	 * thread can split the segment once it is claimed.
+	 */
+	private boolean splitConcurrently(Set<Pnt> segmentAB, Triangle near) {
+		ConcurrentDelaunayAlgorithm alg = (ConcurrentDelaunayAlgorithm) algorithm;
+		Pnt[] segmentAB_ar = segmentAB.toArray(new Pnt[0]);
+		Pnt pntC = segmentAB_ar[0].midPoint(segmentAB_ar[1]);
+		Object owner = new Object();
+		List<Triangle> claimed = new ArrayList<Triangle>();
+		long[] steps = new long[1];
+		while(true){
+			Set<Triangle> cavity;
+			meshLock.readLock().lock();
+			try{
+				if(!isPSLG(segmentAB)) return false;	//Split by another thread
+				Triangle triangle = walkConcurrently(pntC, near, steps);
+				int ia = (triangle == null)? -1 : triangle.indexOf(segmentAB_ar[0]);
+				int ib = (triangle == null)? -1 : triangle.indexOf(segmentAB_ar[1]);
+				if(ia < 0 || ib < 0)
+					throw new IllegalStateException("Segment " + segmentAB + " is not an edge at its midpoint");
+				cavity = alg.findSplitCavity(pntC, triangle, 3 - ia - ib, this);
+				if(!claimRegion(cavity, owner, claimed)) cavity = null;
+			}finally{
+				meshLock.readLock().unlock();
+			}
+			if(cavity == null){							//Conflict: try again
+				Thread.yield();
+				continue;
+			}
+			meshLock.writeLock().lock();
+			try{
+				recordSplit(segmentAB, pntC);
+				pointList.add(pntC);
+				if(changes != null) changes.vertexInserted(pntC);
+				alg.fillSplitCavity(pntC, segmentAB_ar[0], segmentAB_ar[1], cavity, this);
+				if(hierarchy != null) hierarchy.insert(pntC);
+				locateCalls++;
+				walkSteps += steps[0];
+				fireMeshChanged();
+			}finally{
+				for(Triangle t : claimed) t.release(owner);
+				meshLock.writeLock().unlock();
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * Replaces the PSLG segment AB by the segments AC and CB.
+	 * Only the list of segments is updated: the algorithm that puts pntC on the segment
+	 * must pass the constraint on to the two halves (see setPSLG).
+	 * 
+	 * @param segmentAB a segment of the PSLG
+	 * @param pntC the point on segmentAB where it is split
+	 */
+	public void recordSplit(Set<Pnt> segmentAB, Pnt pntC) {
+		Pnt[] segmentAB_ar = segmentAB.toArray(new Pnt[0]);			
 		//Remove the old segment from the PSLG:
-		boundary_PSLG.remove(segmentAB);
+		removeSegment(segmentAB);
+		if(changes != null) changes.segmentSplit(segmentAB, pntC);
 		//Add the new segments:
 		Set<Pnt> segmentAC = new HashSet<Pnt>();
 		segmentAC.add(segmentAB_ar[0]);
 		segmentAC.add(pntC);
 		if(debug)System.out.println("(Triangulation) Adding the segment to PSLG: " + segmentAC.toString());
-		boundary_PSLG.add(segmentAC);
+		addSegment(segmentAC);
 		Set<Pnt> segmentCB = new HashSet<Pnt>();
 		segmentCB.add(segmentAB_ar[1]);
 		segmentCB.add(pntC);
 		if(debug)System.out.println("(Triangulation) Adding the segment to PSLG: " + segmentCB.toString());
-		boundary_PSLG.add(segmentCB);
-		
-    	pointList.add(pntC);
-		algorithm.splitBoundary(segmentAB, this);
-		
-    	if(debug)isGraphStillCorrect("splitBoundary");
+		addSegment(segmentCB);
 	}
 	
 	/**
@@ -281,7 +897,9 @@ public class Triangulation extends AbstractSet<Triangle> {
 	 */
 	public void delaunayRemove(Pnt site) {
     	pointList.remove(site);    	
+    	if(changes != null) changes.vertexRemoved(site);
 		algorithm.delaunayRemove(site,this);
+		if(hierarchy != null) hierarchy.remove(site);
 		
 		Set<Set<Pnt>> toBeRemoved = new HashSet<Set<Pnt>>();
 		for(Set<Pnt> segment : boundary_PSLG){
@@ -289,9 +907,49 @@ public class Triangulation extends AbstractSet<Triangle> {
 				toBeRemoved.add(segment);
 			}
 		}
-		boundary_PSLG.removeAll(toBeRemoved);
+		for(Set<Pnt> segment : toBeRemoved) removeSegment(segment);
 		
     	if(debug)isGraphStillCorrect("delaunayRemove");
+    	fireMeshChanged();
+	}
+	
+	/**
+	 * Adds a segment to the PSLG list and to the segment index.
+	 */
+	private void addSegment(Set<Pnt> segment){
+		if(boundary_PSLG.add(segment)) segmentIndex.add(segment);
+	}
+	
+	/**
+	 * Removes a segment from the PSLG list and from the segment index.
+	 */
+	private void removeSegment(Set<Pnt> segment){
+		if(boundary_PSLG.remove(segment)) segmentIndex.remove(segment);
+	}
+	
+	/**
+	 * Finds the segments encroached by a point, using the segment index
+	 * rather than testing every segment.
+	 * 
+	 * @param point the point to test
+	 * @return the segments of the PSLG whose diametral circle holds point strictly inside
+	 */
+	public List<Set<Pnt>> obtainEncroachedSegments(Pnt point){
+		if(meshLock == null) return segmentIndex.encroached(point);
+		meshLock.readLock().lock();					//Segments are split concurrently, see enableConcurrentInsertion()
+		try{
+			return segmentIndex.encroached(point);
+		}finally{
+			meshLock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * @param vertex the point to test
+	 * @return true iff vertex is an endpoint of a segment of the PSLG
+	 */
+	public boolean isBoundaryVertex(Pnt vertex){
+		return segmentIndex.isEndpoint(vertex);
 	}
 	
 	/**
@@ -303,6 +961,31 @@ public class Triangulation extends AbstractSet<Triangle> {
 		return boundary_PSLG.contains(facet);
 	}
 	
+	/**
+	 * Same as isPSLG(triangle.facetOpposite(triangle.get(i))), but reads the
+	 * constraint flag of the edge in the mesh instead of hashing the facet.
+	 * 
+	 * @param triangle a triangle of the triangulation
+	 * @param i 0, 1 or 2
+	 * @return true if the facet opposite the i-th vertex of triangle belongs to a boundary
+	 */
+	public boolean isPSLG(Triangle triangle, int i){
+		return triMesh.isConstrained(triangle, i);
+	}
+	
+	/**
+	 * Marks (or unmarks) the facet opposite the i-th vertex of triangle as a boundary,
+	 * on both sides of the facet. Algorithms call this when they create a boundary facet
+	 * that must be protected before the triangulation is told about it.
+	 * 
+	 * @param triangle a triangle of the triangulation
+	 * @param i 0, 1 or 2
+	 * @param isPSLG the new status of the facet
+	 */
+	public void setPSLG(Triangle triangle, int i, boolean isPSLG){
+		triMesh.setConstrained(triangle, i, isPSLG);
+	}
+	
 	/**
 	 * Method returns all points in the triangulation.
 	 * The set may not be modified.
@@ -361,8 +1044,11 @@ public class Triangulation extends AbstractSet<Triangle> {
      * @param triangle
      */
     public void addToGraph(Triangle triangle){
-        triGraph.add(triangle);
+        triMesh.add(triangle);
         mostRecent = triangle;    	
+        if (changes != null) changes.triangleAdded(triangle);
+        if (vertexHints != null)
+        	for (Pnt vertex: triangle) vertexHints.put(vertex, triangle);
     }
     
     /**
@@ -371,7 +1057,28 @@ public class Triangulation extends AbstractSet<Triangle> {
      * @param t2
      */
     public void addLinkToGraph(Triangle t1, Triangle t2){
-        triGraph.addLink(t1,t2);  	
+        triMesh.addLink(t1,t2);  	
+    }
+    
+    /**
+     * Flip the edge opposite vertex i of triangle in place (see TriangleMesh.flip):
+     * triangle and its neighbor across the edge are rewritten to use the other diagonal.
+     * Both still have the vertex i of triangle afterwards.
+     * @param triangle a triangle of the triangulation
+     * @param i 0, 1 or 2; the edge must have a neighbor, must not be PSLG, and the
+     * two triangles must form a convex quadrilateral
+     */
+    public void flip(Triangle triangle, int i){
+    	Triangle neighbor = triMesh.neighborOpposite(triangle.get(i), triangle);
+    	triMesh.flip(triangle, i);
+    	if (changes != null) {
+    		changes.triangleFlipped(triangle);
+    		changes.triangleFlipped(neighbor);
+    	}
+    	if (vertexHints != null) {
+    		for (Pnt vertex: triangle) vertexHints.put(vertex, triangle);
+    		for (Pnt vertex: neighbor) vertexHints.put(vertex, neighbor);
+    	}
     }
     
     /**
@@ -379,7 +1086,8 @@ public class Triangulation extends AbstractSet<Triangle> {
      * @param triangle
      */
     public void removeFromGraph(Triangle triangle){
-    	triGraph.remove(triangle);
+    	triMesh.remove(triangle);
+    	if (changes != null) changes.triangleRemoved(triangle);
     }
 	
     /**
@@ -396,7 +1104,7 @@ public class Triangulation extends AbstractSet<Triangle> {
         dt.delaunayPlace(new Pnt(0,1));
         System.out.println("After adding 3 points, we have a " + dt);
         Triangle.moreInfo = true;
-        System.out.println("Triangles: " + dt.triGraph.nodeSet());
+        System.out.println("Triangles: " + new ArrayList<Triangle>(dt));
     }
     
 
@@ -424,7 +1132,7 @@ public class Triangulation extends AbstractSet<Triangle> {
         Triangle.moreInfo = true;
 		if(debugGraph)System.out.println("(" + method + ") Starting a total graph validation.");
 		boolean graphIsCorrect = true;
-		for(Triangle triangle : triGraph.nodeSet()){
+		for(Triangle triangle : triMesh){
 			Set<Triangle> NBs = this.neighbors(triangle);
 			int numNBs = NBs.size();
 			boolean correctNB = true;
@@ -461,8 +1169,22 @@ public class Triangulation extends AbstractSet<Triangle> {
 	}
 
 	public void refine(Triangulation dt, DelaunayRefineAlgorithm alg, double minAngle, double maxArea) {
-		// Create an outer boundary to make refine_algorithm converge (otherwise it must fill an infinite space)
-		
+		addOuterBound();
+		if(alg!=null)alg.refine(dt, minAngle, maxArea);
+	}
+
+	/**
+	 * Refine with triangle sizes that vary over the domain (see SizingFunction).
+	 */
+	public void refine(Triangulation dt, DelaunayRefineAlgorithm alg, double minAngle, SizingFunction sizing) {
+		addOuterBound();
+		if(alg!=null)alg.refine(dt, minAngle, sizing);
+	}
+
+	/**
+	 * Create an outer boundary to make refine_algorithm converge (otherwise it must fill an infinite space)
+	 */
+	private void addOuterBound() {
 		double minx = Double.MAX_VALUE, maxx = Double.MIN_VALUE, miny = Double.MAX_VALUE, maxy = Double.MIN_VALUE;
 		for(Set<Pnt> segment : this.boundary_PSLG){
 			for(Pnt vertex : segment){
@@ -492,8 +1214,6 @@ public class Triangulation extends AbstractSet<Triangle> {
 			this.delaunayPlaceBoundary(br, bl);
 			this.delaunayPlaceBoundary(bl, tl);	
 		}
-		
-		if(alg!=null)alg.refine(dt, minAngle, maxArea);
 	}
 	
 
@@ -507,10 +1227,8 @@ public class Triangulation extends AbstractSet<Triangle> {
 	public Set<Set<Pnt>> getBoundarySegments(Triangle triangle) {
 		Set<Set<Pnt>> segments = new HashSet<Set<Pnt>>();
 		
-		Set<Pnt> segment;
 		for(int i = 0; i<3; i++){ //iterate over vertices of a triangle
-			segment = triangle.facetOpposite(triangle.get(i));
-			if(boundary_PSLG.contains(segment)) segments.add(segment);
+			if(triMesh.isConstrained(triangle, i)) segments.add(triangle.facetOpposite(triangle.get(i)));
 		}
 		
 		return segments;
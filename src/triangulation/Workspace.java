@@ -0,0 +1,172 @@
+package triangulation;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Scratch space for the algorithms of one Triangulation (see
+ * Triangulation.obtainWorkspace()), so that inserting a site does not
+ * allocate lists and sets that are thrown away right after.
+ *
+ * It has growable stacks, which keep their arrays between uses, and marks on
+ * triangles. The marks are stamped with an epoch: newEpoch() forgets all marks
+ * at once, without visiting the triangles. A triangle can be marked (e.g.
+ * visited) or, more strongly, marked as in the cavity.
+ *
+ * A workspace made for one thread of a concurrent insertion keeps its marks in
+ * sets of its own, since the stamps in the triangles are shared.
+ *
+ */
+public class Workspace {
+
+    private Iterable<Triangle> triangles;       // All triangles that can be marked
+    private int epoch = 0;                      // Current epoch (even)
+    private Set<Triangle> marked = null;        // Marks, if not kept in the triangles
+    private Set<Triangle> inCavity = null;
+
+    // Stacks; which algorithm uses which is documented at the algorithm
+    public final TriangleStack cavity = new TriangleStack();
+    public final TriangleStack queue = new TriangleStack();
+    public final TriangleStack triangleStack = new TriangleStack();
+    public final PntStack pntStackU = new PntStack();
+    public final PntStack pntStackV = new PntStack();
+
+    /**
+     * @param triangles the triangles whose marks this workspace uses
+     * @param threadConfined true iff the marks must not be stamped in the
+     * triangles, because other threads mark the same triangles
+     */
+    Workspace (Iterable<Triangle> triangles, boolean threadConfined) {
+        this.triangles = triangles;
+        if (threadConfined) {
+            marked = new HashSet<Triangle>();
+            inCavity = new HashSet<Triangle>();
+        }
+        newEpoch();
+    }
+
+    /**
+     * Forget all marks.
+     */
+    public void newEpoch () {
+        if (marked != null) {
+            marked.clear();
+            inCavity.clear();
+            return;
+        }
+        epoch += 2;
+        if (epoch < 0) {                        // Wrapped: old stamps could match again
+            for (Triangle triangle: triangles) triangle.mark = 0;
+            epoch = 2;
+        }
+    }
+
+    /**
+     * @param triangle the triangle to mark as visited
+     */
+    public void mark (Triangle triangle) {
+        if (marked != null) marked.add(triangle);
+        else if (triangle.mark != epoch + 1) triangle.mark = epoch;
+    }
+
+    /**
+     * @param triangle the triangle to mark as in the cavity (and visited)
+     */
+    public void markCavity (Triangle triangle) {
+        if (marked != null) {
+            marked.add(triangle);
+            inCavity.add(triangle);
+        }
+        else triangle.mark = epoch + 1;
+    }
+
+    /**
+     * @return true iff triangle was marked (either way) since the last newEpoch()
+     */
+    public boolean isMarked (Triangle triangle) {
+        if (marked != null) return marked.contains(triangle);
+        return triangle.mark >= epoch;
+    }
+
+    /**
+     * @return true iff triangle was marked as in the cavity since the last newEpoch()
+     */
+    public boolean isInCavity (Triangle triangle) {
+        if (marked != null) return inCavity.contains(triangle);
+        return triangle.mark == epoch + 1;
+    }
+
+    /**
+     * A stack of triangles that keeps its array.
+     */
+    public static class TriangleStack {
+        private Triangle[] items = new Triangle[64];
+        private int size = 0;
+
+        public void clear () {
+            Arrays.fill(items, 0, size, null);
+            size = 0;
+        }
+
+        public void push (Triangle triangle) {
+            if (size == items.length) items = Arrays.copyOf(items, 2*size);
+            items[size++] = triangle;
+        }
+
+        public Triangle pop () {
+            Triangle triangle = items[--size];
+            items[size] = null;
+            return triangle;
+        }
+
+        public Triangle get (int index) {
+            return items[index];
+        }
+
+        public void set (int index, Triangle triangle) {
+            items[index] = triangle;
+        }
+
+        public int size () {
+            return size;
+        }
+
+        public boolean isEmpty () {
+            return size == 0;
+        }
+    }
+
+    /**
+     * A stack of points that keeps its array.
+     */
+    public static class PntStack {
+        private Pnt[] items = new Pnt[64];
+        private int size = 0;
+
+        public void clear () {
+            Arrays.fill(items, 0, size, null);
+            size = 0;
+        }
+
+        public void push (Pnt pnt) {
+            if (size == items.length) items = Arrays.copyOf(items, 2*size);
+            items[size++] = pnt;
+        }
+
+        public Pnt pop () {
+            Pnt pnt = items[--size];
+            items[size] = null;
+            return pnt;
+        }
+
+        public Pnt get (int index) {
+            return items[index];
+        }
+
+        public int size () {
+            return size;
+        }
+    }
+
+}
@@ -1,14 +1,21 @@
 package triangulation.delaunay;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 
+import triangulation.Geometry2D;
+import triangulation.MeshChanges;
+import triangulation.MeshListener;
 import triangulation.Pnt;
 import triangulation.Triangle;
 import triangulation.Triangulation;
+import triangulation.Workspace;
 
 public abstract class DelaunayUtils {
 	
@@ -26,27 +33,20 @@ public abstract class DelaunayUtils {
 		if(facet1.size() != 2 || facet2.size() != 2) 
 			throw new IllegalArgumentException("Facet should have size 2");
 		
-		// Store facet1 in vertices[0, 1]
-		// Store facet2 in vertices[2, 3]
-		Pnt[] vertices = new Pnt[4];
-		int i = 0;
-		for(Pnt point : facet1){
-			vertices[i++] = point;
-		}
-		for(Pnt point : facet2){
-			vertices[i++] = point;
-		}
-		
-		Pnt BmA = vertices[1].subtract(vertices[0]);
-		Pnt PmA = vertices[2].subtract(vertices[0]);
-		Pnt PmQ = vertices[2].subtract(vertices[3]);
-		
-		double det = BmA.cross_z(PmQ);
-		double mu = BmA.cross_z(PmA)/det;
-		double lamb = PmA.cross_z(PmQ)/det;
-		
-		return (includeCorners && (0 <= mu && mu <= 1 && 0 <= lamb && lamb <= 1)) ||
-				(!includeCorners && (0 < mu && mu < 1 && 0 < lamb && lamb < 1));
+		Iterator<Pnt> it1 = facet1.iterator();
+		Iterator<Pnt> it2 = facet2.iterator();
+		return intersect(it1.next(), it1.next(), it2.next(), it2.next(), includeCorners);
+	}
+	
+	/**
+	 * Checks whether segments ab and pq intersect.
+	 * 
+	 * @param includeCorners is true if the corner of a segment is a part of the segment
+	 * @return true iff the segments intersect.
+	 */
+	public static boolean intersect(Pnt a, Pnt b, Pnt p, Pnt q, boolean includeCorners){
+		return Geometry2D.segmentsIntersect(a.coord(0), a.coord(1), b.coord(0), b.coord(1),
+				p.coord(0), p.coord(1), q.coord(0), q.coord(1), includeCorners);
 	}
 	
     /**
@@ -58,43 +58,68 @@ public abstract class DelaunayUtils {
      * @return set of all triangles that have site in their circumcircle
      */
 	public static Set<Triangle> getCavity (Pnt site, Triangle triangle, Triangulation trilation) {
-        Set<Triangle> encroached = new HashSet<Triangle>();
-        Queue<Triangle> toBeChecked = new LinkedList<Triangle>();
-        Set<Triangle> marked = new HashSet<Triangle>();
+		Workspace workspace = trilation.obtainWorkspace();
+		getCavity(site, triangle, trilation, workspace);
+		Set<Triangle> encroached = new HashSet<Triangle>();
+		for(int i = 0; i < workspace.cavity.size(); i++) encroached.add(workspace.cavity.get(i));
+		return encroached;
+	}
+	
+    /**
+     * Determine the cavity caused by site, without allocating: afterwards the cavity stack
+     * of workspace holds the triangles that have site in their circumcircle, and they are
+     * marked as in the cavity. Uses the queue stack and the marks of workspace.
+     * @param site the site causing the cavity
+     * @param triangle the triangle containing site
+     * @param workspace the workspace of trilation
+     */
+	public static void getCavity (Pnt site, Triangle triangle, Triangulation trilation, Workspace workspace) {
+		workspace.newEpoch();
+		workspace.cavity.clear();
+		workspace.queue.clear();
+        workspace.queue.push(triangle);
+        workspace.mark(triangle);
+        growCavity(site, trilation, workspace);
+	}
+	
+    /**
+     * Continue a cavity search: check the (marked) triangles on the queue stack of workspace,
+     * and their unmarked neighbours, and add those with site in their circumcircle to the
+     * cavity stack. See getCavity.
+     * @param site the site causing the cavity
+     * @param workspace the workspace of trilation
+     */
+	public static void growCavity (Pnt site, Triangulation trilation, Workspace workspace) {
+		Workspace.TriangleStack toBeChecked = workspace.queue;
+		Triangle triangle;
         
         //Find the cavity:
-        toBeChecked.add(triangle);
-        marked.add(triangle);
 whileLoop:while (!toBeChecked.isEmpty()) {
-            triangle = toBeChecked.remove();
-            //Check for boundary segments (PSLG)
-            Set<Set<Pnt>> boundarySegments = trilation.getBoundarySegments(triangle);
-            //Check for each boundary segment if it blocks the site out:
-            for(Set<Pnt> segment : boundarySegments){
-            	Pnt oppVertex = triangle.getVertexButNot(segment.toArray(new Pnt[0])); //Opposite vertex
+            triangle = toBeChecked.pop();
+            //Check for each boundary segment (PSLG) if it blocks the site out:
+            for(int i = 0; i < 3; i++){
+            	if(!trilation.isPSLG(triangle, i)) continue;
+            	Pnt segA = triangle.get((i+1)%3), segB = triangle.get((i+2)%3);
+            	Pnt oppVertex = triangle.get(i); //Opposite vertex
             	//Check whether the line <site,oppVertex> intersects the segment. If true, then oppVertex is blocked from site.
-            	Set<Pnt> lineToBeChecked = new HashSet<Pnt>();
-            	lineToBeChecked.add(site);
-            	lineToBeChecked.add(oppVertex);
-            	
-            	if(intersect(lineToBeChecked,segment,true)){
+            	if(intersect(site,oppVertex,segA,segB,true)){
                 	continue whileLoop;            		
             	}
             }
             
             //Not PSLG: check if triangle is a part of the cavity
-            if (site.vsCircumcircle(triangle.toArray(new Pnt[0])) == 1)
+            if (triangle.vsCircumcircle(site) == 1)
                 continue; // Site outside triangle => triangle not in cavity
-            encroached.add(triangle); // Triangle in cavity.
+            workspace.cavity.push(triangle); // Triangle in cavity.
+            workspace.markCavity(triangle);
             // Check the neighbors
-            for (Triangle neighbor: trilation.neighbors(triangle)){
-                if (marked.contains(neighbor)) continue;
-                marked.add(neighbor);
-                toBeChecked.add(neighbor);
+            for (int i = 0; i < 3; i++){
+                Triangle neighbor = trilation.neighborOpposite(triangle.get(i), triangle);
+                if (neighbor == null || workspace.isMarked(neighbor)) continue;
+                workspace.mark(neighbor);
+                toBeChecked.push(neighbor);
             }
         }
-        
-        return encroached;
     }
 	
 //    /**
@@ -138,7 +163,7 @@ whileLoop:while (!toBeChecked.isEmpty()) {
 	 */
 	public static boolean localDelaunay(Pnt site, Triangle triangle){
 		//True if "site" is outside "triangle":
-		return site.vsCircumcircle(triangle.toArray(new Pnt[0])) == 1;
+		return triangle.vsCircumcircle(site) == 1;
 	}
 	
 	/**
@@ -151,22 +176,362 @@ whileLoop:while (!toBeChecked.isEmpty()) {
 	 * @return a Queue<Triangle> with the bad triangles.
 	 */
 	public static Queue<Triangle> obtainBadTriangles(Triangulation trilation, double minAngle, double maxArea){
+		return obtainBadTriangles(trilation, new TriangleQuality(trilation, minAngle, maxArea));
+	}
+	
+	/**
+	 * Returns a list of bad triangles, see TriangleQuality.
+	 * @return a Queue<Triangle> with the bad triangles.
+	 */
+	public static Queue<Triangle> obtainBadTriangles(Triangulation trilation, TriangleQuality quality){
 		Queue<Triangle> queue = new LinkedList<Triangle>();
 		
 		Iterator<Triangle> it_triangle = trilation.iterator();
 		while(it_triangle.hasNext()){
 			Triangle triangle = it_triangle.next();
-			if(triangle.containsAny(trilation.obtainInitialTriangle())) continue; //TODO: Check if not an external triangle
-			double angle = triangle.getMinAngle();
-			double area = triangle.getSurfaceArea();
-			//System.out.println("(Utils) area = " + area);
-			if(angle < minAngle || area > maxArea) queue.add(triangle); 
+			if(quality.isBad(triangle)) queue.add(triangle); 
 		}
 		//System.out.println("(Utils) size = " + queue.size());
 		return queue;
 	}
 	
+	/**
+	 * Makes a MeshListener that adds the triangles created or flipped by each batch to log,
+	 * for refinement to evaluate only the triangles that changed (see Triangulation.addMeshListener).
+	 * @param log the collection to add to
+	 * @return the listener; it still has to be added to the triangulation
+	 */
+	public static MeshListener collectCreatedTriangles(final Collection<Triangle> log){
+		return new MeshListener(){
+			@Override
+			public void meshChanged(MeshChanges changes){
+				log.addAll(changes.obtainCreatedTriangles());
+			}
+		};
+	}
 	
+	/**
+	 * Inserts the segment <a,b> between two vertices of the triangulation as a constrained edge.
+	 * 
+	 * The edges crossed by the segment are flipped until the segment is an edge (see
+	 * flipCrossingEdges), and then the new edges are flipped until the triangulation is
+	 * constrained Delaunay again. This also works where the crossed triangles do not form a
+	 * simple polygon, as when a vertex beside the segment is surrounded by crossed triangles.
+	 * Finding the k crossed edges takes time proportional to k; the flips take O(k^2) in the
+	 * worst case, but usually about O(k). A vertex exactly on the segment splits it (see
+	 * Triangulation.recordSplit), and the pieces are inserted one after the other.
+	 * 
+	 * Nothing is changed if the segment crosses a segment of the PSLG.
+	 * 
+	 * @param a a vertex of trilation
+	 * @param b another vertex of trilation
+	 * @return false iff the segment crosses a segment of the PSLG
+	 */
+	public static boolean insertSegment(Pnt a, Pnt b, Triangulation trilation){
+		if(crossesPSLG(a, b, trilation)) return false;
+		recoverSegment(a, b, trilation);
+		return true;
+	}
+	
+	/**
+	 * Walks from a towards b through the triangles crossed by the segment <a,b>, without
+	 * changing trilation. Touching a segment of the PSLG (b on it, or a vertex of it on <a,b>)
+	 * is not crossing it.
+	 * @param a a vertex of trilation
+	 * @param b a point in trilation, which need not be a vertex yet
+	 * @return true iff the segment <a,b> crosses a segment of the PSLG
+	 */
+	public static boolean crossesPSLG(Pnt a, Pnt b, Triangulation trilation){
+		return obtainCrossedSegment(a, b, trilation) != null;
+	}
+	
+	/**
+	 * Same walk as crossesPSLG.
+	 * @param a a vertex of trilation
+	 * @param b a point in trilation, which need not be a vertex yet
+	 * @return the first segment of the PSLG crossed by <a,b>; null if none
+	 */
+	public static Set<Pnt> obtainCrossedSegment(Pnt a, Pnt b, Triangulation trilation){
+		walk:
+		while(!a.equals(b)){
+			//Find the triangle around a through which the segment leaves a:
+			Triangle start = trilation.locate(a);
+			a = start.get(start.indexOf(a));
+			Triangle triangle = null;
+			Pnt pntL = null, pntR = null;
+			for(Triangle t : trilation.surroundingTriangles(a, start)){
+				int i = t.indexOf(a);
+				Pnt u = t.get((i+1)%3), v = t.get((i+2)%3);
+				if(orient(a, u, v) < 0){ Pnt w = u; u = v; v = w; } //Make <a,u,v> counterclockwise
+				if(u.equals(b) || v.equals(b)) return null;
+				double ou = orient(a, u, b), ov = orient(a, b, v);
+				if(ou == 0 && isAhead(a, b, u)){ //u lies on the line: continue from u if b lies beyond it
+					if(!isAhead(b, a, u)) return null;
+					a = u;
+					continue walk;
+				}
+				if(ov == 0 && isAhead(a, b, v)){
+					if(!isAhead(b, a, v)) return null;
+					a = v;
+					continue walk;
+				}
+				if(ou > 0 && ov > 0){ triangle = t; pntR = u; pntL = v; break; }
+			}
+			if(triangle == null) throw new IllegalStateException("No triangle around " + a + " towards " + b);
+			Pnt apex = a;
+			while(orient(pntR, pntL, b) < 0){ //b lies beyond the edge <pntR,pntL>
+				if(trilation.isPSLG(triangle, triangle.indexOf(apex))) return triangle.facetOpposite(apex);
+				Triangle next = trilation.neighborOpposite(apex, triangle);
+				if(next == null) return null;
+				Pnt w = thirdVertex(next, pntL, pntR);
+				if(w.equals(b)) return null;
+				double o = orient(a, b, w);
+				if(o == 0){
+					if(!isAhead(b, a, w)) return null;
+					a = w;
+					continue walk;
+				}
+				if(o > 0){
+					apex = pntL;
+					pntL = w;
+				}else{
+					apex = pntR;
+					pntR = w;
+				}
+				triangle = next;
+			}
+			return null;
+		}
+		return null;
+	}
+	
+	/**
+	 * Inserts the segment <a,b> as insertSegment does, without checking first whether it
+	 * crosses the PSLG: for callers that have already checked (see crossesPSLG). The segment
+	 * is walked piece by piece, and a is located only once: each piece starts from a triangle
+	 * of the one before.
+	 * @param a a vertex of trilation
+	 * @param b another vertex of trilation
+	 */
+	public static void recoverSegment(Pnt a, Pnt b, Triangulation trilation){
+		Set<Pnt> rest = new HashSet<Pnt>();
+		rest.add(a);
+		rest.add(b);
+		Triangle start = trilation.locate(a);
+		while(!a.equals(b)){
+			//Find the triangle around a through which the segment leaves a:
+			a = start.get(start.indexOf(a)); //The Pnt of the mesh
+			Triangle triangle = null, edge = null; //edge: a triangle with the edge <a,end>
+			Pnt pntL = null, pntR = null, end = null;
+			for(Triangle t : trilation.surroundingTriangles(a, start)){
+				int i = t.indexOf(a);
+				Pnt u = t.get((i+1)%3), v = t.get((i+2)%3);
+				if(orient(a, u, v) < 0){ Pnt w = u; u = v; v = w; } //Make <a,u,v> counterclockwise
+				if(u.equals(b)){ end = u; edge = t; break; } //The edge exists
+				if(v.equals(b)){ end = v; edge = t; break; }
+				double ou = orient(a, u, b), ov = orient(a, b, v);
+				if(ou == 0 && isAhead(a, b, u)){ end = u; edge = t; break; } //u lies on the segment
+				if(ov == 0 && isAhead(a, b, v)){ end = v; edge = t; break; }
+				if(ou > 0 && ov > 0){ triangle = t; pntR = u; pntL = v; break; }
+			}
+			if(end == null){
+				if(triangle == null) throw new IllegalStateException("No triangle around " + a + " towards " + b);
+				//Walk along the segment, collecting the crossed edges and a triangle of each
+				Queue<Pnt[]> crossing = new LinkedList<Pnt[]>();
+				Queue<Triangle> holders = new LinkedList<Triangle>();
+				crossing.add(new Pnt[]{pntL, pntR});
+				holders.add(triangle);
+				Pnt apex = a;
+				while(true){
+					Triangle next = trilation.neighborOpposite(apex, triangle);
+					Pnt w = thirdVertex(next, pntL, pntR);
+					double o = orient(a, b, w);
+					if(w.equals(b) || o == 0){ //The segment ends (or is split) at w
+						end = w;
+						break;
+					}
+					if(o > 0){
+						apex = pntL;
+						pntL = w;
+					}else{
+						apex = pntR;
+						pntR = w;
+					}
+					crossing.add(new Pnt[]{pntL, pntR});
+					holders.add(next);
+					triangle = next;
+				}
+				edge = flipCrossingEdges(a, end, crossing, holders, trilation);
+				trilation.setPSLG(edge, 3 - edge.indexOf(a) - edge.indexOf(end), true);
+				restoreDelaunay(trilation);
+			}else{
+				trilation.setPSLG(edge, 3 - edge.indexOf(a) - edge.indexOf(end), true);
+			}
+			if(!end.equals(b)){
+				trilation.recordSplit(rest, end);
+				rest = new HashSet<Pnt>();
+				rest.add(end);
+				rest.add(b);
+			}
+			start = triangleAround(end, edge, trilation);
+			a = end;
+		}
+	}
+	
+	/**
+	 * Flips the edges that cross the segment <a,end> until it is an edge (S.W. Sloan, "A fast
+	 * algorithm for generating constrained Delaunay triangulations", 1993). An edge whose two
+	 * triangles form a convex quadrilateral is flipped, and queued again if the new edge still
+	 * crosses; an edge that cannot be flipped yet is queued again behind the others. There is
+	 * always an edge that can be flipped, so this ends.
+	 * 
+	 * The new edges that do not cross are left on the workspace stacks (triangleStack, pntStackU
+	 * and pntStackV), for restoreDelaunay.
+	 * 
+	 * The triangles between the flips are long and thin, so locate() would walk across all of
+	 * them: the edges are found through a triangle of each vertex instead, kept up to date here.
+	 * @param crossing the edges that cross <a,end>, as pairs of vertices
+	 * @param holders for each edge, a triangle that had it when it was queued
+	 * @return a triangle with the edge <a,end>
+	 */
+	private static Triangle flipCrossingEdges(Pnt a, Pnt end, Queue<Pnt[]> crossing, Queue<Triangle> holders,
+			Triangulation trilation){
+		Workspace workspace = trilation.obtainWorkspace();
+		workspace.triangleStack.clear();
+		workspace.pntStackU.clear();
+		workspace.pntStackV.clear();
+		Map<Pnt, Triangle> corners = new HashMap<Pnt, Triangle>(); //A triangle of each vertex
+		for(Triangle triangle : holders)
+			for(Pnt vertex : triangle) corners.put(vertex, triangle);
+		while(!crossing.isEmpty()){
+			Pnt[] edge = crossing.remove();
+			Triangle triangle = triangleWithEdge(edge[0], edge[1], holders.remove(), corners, trilation);
+			int i = 3 - triangle.indexOf(edge[0]) - triangle.indexOf(edge[1]);
+			Pnt x = triangle.get(i);
+			Triangle opposite = trilation.neighborOpposite(x, triangle);
+			Pnt y = thirdVertex(opposite, edge[0], edge[1]);
+			double o0 = orient(x, y, edge[0]), o1 = orient(x, y, edge[1]);
+			if(!((o0 > 0 && o1 < 0) || (o0 < 0 && o1 > 0))){ //Not convex: try again later
+				crossing.add(edge);
+				holders.add(triangle);
+				continue;
+			}
+			trilation.flip(triangle, i); //triangle keeps x and gets y
+			for(Pnt vertex : triangle) corners.put(vertex, triangle);
+			for(Pnt vertex : opposite) corners.put(vertex, opposite);
+			if(crosses(a, end, x, y)){
+				crossing.add(new Pnt[]{x, y});
+				holders.add(triangle);
+			}else{
+				push(workspace, triangle, x, y);
+			}
+		}
+		//Later flips may have moved a new edge to another triangle:
+		for(int k = 0; k < workspace.triangleStack.size(); k++){
+			Triangle triangle = workspace.triangleStack.get(k);
+			Pnt u = workspace.pntStackU.get(k), v = workspace.pntStackV.get(k);
+			workspace.triangleStack.set(k, triangleWithEdge(u, v, triangle, corners, trilation));
+		}
+		return triangleWithEdge(a, end, corners.get(a), corners, trilation);
+	}
+	
+	/**
+	 * Flips the edges on the workspace stacks (see flipCrossingEdges) that are not locally
+	 * Delaunay, and then the edges around each flip, as Lawson does. PSLG edges are kept.
+	 */
+	private static void restoreDelaunay(Triangulation trilation){
+		Workspace workspace = trilation.obtainWorkspace();
+		Workspace.TriangleStack stack = workspace.triangleStack;
+		Workspace.PntStack stackU = workspace.pntStackU, stackV = workspace.pntStackV;
+		while(!stack.isEmpty()){
+			Triangle triangle = stack.pop();
+			int iu = triangle.indexOf(stackU.pop()), iv = triangle.indexOf(stackV.pop());
+			if(iu < 0 || iv < 0 || !trilation.contains(triangle)) continue; //Flipped away
+			int i = 3 - iu - iv;
+			if(trilation.isPSLG(triangle, i)) continue;
+			Pnt p = triangle.get(i), u = triangle.get((i+1)%3), v = triangle.get((i+2)%3);
+			Triangle opposite = trilation.neighborOpposite(p, triangle);
+			if(opposite == null) continue;
+			Pnt q = thirdVertex(opposite, u, v);
+			if(localDelaunay(q, triangle)) continue;
+			//triangle (p,u,v) becomes (p,u,q), opposite becomes (p,q,v):
+			trilation.flip(triangle, i);
+			push(workspace, triangle, p, u);
+			push(workspace, triangle, u, q);
+			push(workspace, opposite, q, v);
+			push(workspace, opposite, v, p);
+		}
+	}
+	
+	private static void push(Workspace workspace, Triangle triangle, Pnt u, Pnt v){
+		workspace.triangleStack.push(triangle);
+		workspace.pntStackU.push(u);
+		workspace.pntStackV.push(v);
+	}
+	
+	/**
+	 * @return true iff the edge <x,y> crosses the segment <a,end>, which holds no vertex
+	 * other than its ends
+	 */
+	private static boolean crosses(Pnt a, Pnt end, Pnt x, Pnt y){
+		if(x.equals(a) || x.equals(end) || y.equals(a) || y.equals(end)) return false;
+		double ox = orient(a, end, x), oy = orient(a, end, y);
+		return (ox > 0 && oy < 0) || (ox < 0 && oy > 0);
+	}
+	
+	/**
+	 * Flips change triangles in place: an edge of a triangle that was flipped is usually in
+	 * the triangle it was flipped with; otherwise it is found around a.
+	 * @param hint a triangle that had the edge <a,b> before some flips
+	 * @param corners a triangle of each vertex, a among them
+	 * @return a triangle of trilation with the edge <a,b>
+	 */
+	private static Triangle triangleWithEdge(Pnt a, Pnt b, Triangle hint, Map<Pnt, Triangle> corners,
+			Triangulation trilation){
+		if(hint.indexOf(a) >= 0 && hint.indexOf(b) >= 0) return hint;
+		for(int i = 0; i < 3; i++){
+			Triangle neighbor = trilation.neighborOpposite(hint.get(i), hint);
+			if(neighbor != null && neighbor.indexOf(a) >= 0 && neighbor.indexOf(b) >= 0) return neighbor;
+		}
+		for(Triangle triangle : trilation.surroundingTriangles(a, corners.get(a)))
+			if(triangle.indexOf(b) >= 0) return triangle;
+		throw new IllegalStateException("No edge between " + a + " and " + b);
+	}
+	
+	/**
+	 * @param hint a triangle that had p as a vertex before some flips
+	 * @return a triangle of trilation with vertex p
+	 */
+	private static Triangle triangleAround(Pnt p, Triangle hint, Triangulation trilation){
+		if(hint.indexOf(p) >= 0 && trilation.contains(hint)) return hint;
+		for(int i = 0; i < 3; i++){
+			Triangle neighbor = trilation.neighborOpposite(hint.get(i), hint);
+			if(neighbor != null && neighbor.indexOf(p) >= 0) return neighbor;
+		}
+		return trilation.locate(p);
+	}
+	
+	/**
+	 * @return the vertex of triangle that is neither u nor v
+	 */
+	private static Pnt thirdVertex(Triangle triangle, Pnt u, Pnt v){
+		for(int i = 0; i < 3; i++){
+			Pnt vertex = triangle.get(i);
+			if(vertex != u && vertex != v) return vertex;
+		}
+		return null;
+	}
+	
+	/**
+	 * @return true iff p, which lies on the line through a and b, lies on the same side of a as b
+	 */
+	private static boolean isAhead(Pnt a, Pnt b, Pnt p){
+		return (p.coord(0)-a.coord(0))*(b.coord(0)-a.coord(0)) + (p.coord(1)-a.coord(1))*(b.coord(1)-a.coord(1)) > 0;
+	}
+	
+	private static double orient(Pnt a, Pnt b, Pnt c){
+		return Geometry2D.orient2d(a.coord(0), a.coord(1), b.coord(0), b.coord(1), c.coord(0), c.coord(1));
+	}
 	
 	public static void main(String[] args){
 		Pnt pnt1 = new Pnt(10,10);
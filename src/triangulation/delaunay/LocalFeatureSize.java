@@ -0,0 +1,175 @@
+package triangulation.delaunay;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import triangulation.Geometry2D;
+import triangulation.Pnt;
+import triangulation.Triangulation;
+
+/**
+ * Sizes that follow the local feature size of the PSLG: small triangles where segments
+ * come close to each other, and triangles that grow with the distance to the PSLG.
+ *
+ * The local feature size is estimated at the vertices of the PSLG (the distance to the
+ * nearest segment that does not end there) and at points along each segment, half a cell
+ * apart (the distance to the nearest segment that shares no vertex with it). A node of the
+ * grid then gets the edge length h = min over those points p of scale*lfs(p) + grading*|p - node|,
+ * computed for the nodes around p and spread over the grid by two chamfer passes. The
+ * largest area is that of an equilateral triangle with edges h, at most maxArea.
+ *
+ * The field is computed once, from the segments present at construction; triangles beyond
+ * the grid take the value at its edge.
+ *
+ */
+public class LocalFeatureSize implements SizingFunction {
+
+	private static final int cells = 256;	// Along the longer side of the PSLG
+	private static final double margin = 0.1;	// Of the longer side, around the PSLG
+
+	private final SizingGrid grid;
+
+	/**
+	 * Edges of about the local feature size, growing by half the distance to the PSLG.
+	 * @param trilation the triangulation whose segments define the feature size
+	 * @param maxArea the largest area allowed anywhere
+	 */
+	public LocalFeatureSize(Triangulation trilation, double maxArea){
+		this(trilation, 1, 0.5, maxArea);
+	}
+
+	/**
+	 * @param trilation the triangulation whose segments define the feature size
+	 * @param scale the edge length near the PSLG, relative to the local feature size
+	 * @param grading how fast the edge length grows with the distance to the PSLG
+	 * @param maxArea the largest area allowed anywhere
+	 */
+	public LocalFeatureSize(Triangulation trilation, double scale, double grading, double maxArea){
+		List<Pnt[]> segments = new ArrayList<Pnt[]>();
+		double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for(Set<Pnt> segment : trilation.obtainBoundary()){
+			Iterator<Pnt> it = segment.iterator();
+			Pnt a = it.next(), b = it.next();
+			segments.add(new Pnt[]{a, b});
+			for(Pnt vertex : segment){
+				minX = Math.min(minX, vertex.coord(0));
+				maxX = Math.max(maxX, vertex.coord(0));
+				minY = Math.min(minY, vertex.coord(1));
+				maxY = Math.max(maxY, vertex.coord(1));
+			}
+		}
+		double extent = Math.max(maxX - minX, maxY - minY);
+		if(segments.isEmpty() || !(extent > 0)){ //Nothing to measure: the same size everywhere
+			grid = new SizingGrid(0, 0, 1, 1, 1, maxArea);
+			return;
+		}
+		double cellSize = extent * (1 + 2*margin) / cells;
+		minX -= margin*extent;
+		minY -= margin*extent;
+		int columns = (int) Math.ceil((maxX + margin*extent - minX) / cellSize);
+		int rows = (int) Math.ceil((maxY + margin*extent - minY) / cellSize);
+		grid = new SizingGrid(minX, minY, cellSize, Math.max(1, columns), Math.max(1, rows), Double.POSITIVE_INFINITY);
+
+		for(Pnt[] segment : segments){
+			seed(segment[0], scale*vertexFeatureSize(segment[0], segments), grading);
+			seed(segment[1], scale*vertexFeatureSize(segment[1], segments), grading);
+			double length = Math.hypot(segment[1].coord(0) - segment[0].coord(0), segment[1].coord(1) - segment[0].coord(1));
+			int samples = (int) Math.ceil(2 * length / cellSize);
+			for(int k = 1; k < samples; k++){
+				double t = (double) k / samples;
+				double x = segment[0].coord(0) + t*(segment[1].coord(0) - segment[0].coord(0));
+				double y = segment[0].coord(1) + t*(segment[1].coord(1) - segment[0].coord(1));
+				seed(new Pnt(x, y), scale*segmentFeatureSize(x, y, segment, segments), grading);
+			}
+		}
+		spread(grading);
+
+		for(int i = 0; i <= grid.obtainColumns(); i++)
+			for(int j = 0; j <= grid.obtainRows(); j++){
+				double h = grid.get(i, j);
+				grid.set(i, j, Math.min(maxArea, Math.sqrt(3) / 4 * h*h));
+			}
+	}
+
+	@Override
+	public double maxArea(double x, double y){
+		return grid.maxArea(x, y);
+	}
+
+	/**
+	 * @return the distance from vertex to the nearest segment that does not end at it
+	 */
+	private static double vertexFeatureSize(Pnt vertex, List<Pnt[]> segments){
+		double lfs = Double.POSITIVE_INFINITY;
+		for(Pnt[] other : segments){
+			if(other[0].equals(vertex) || other[1].equals(vertex)) continue;
+			lfs = Math.min(lfs, distance(vertex.coord(0), vertex.coord(1), other));
+		}
+		return lfs;
+	}
+
+	/**
+	 * @return the distance from (x,y), on segment, to the nearest segment that shares no vertex with it
+	 */
+	private static double segmentFeatureSize(double x, double y, Pnt[] segment, List<Pnt[]> segments){
+		double lfs = Double.POSITIVE_INFINITY;
+		for(Pnt[] other : segments){
+			if(other[0].equals(segment[0]) || other[0].equals(segment[1])
+					|| other[1].equals(segment[0]) || other[1].equals(segment[1])) continue;
+			lfs = Math.min(lfs, distance(x, y, other));
+		}
+		return lfs;
+	}
+
+	private static double distance(double x, double y, Pnt[] segment){
+		return Geometry2D.segmentDistance(x, y, segment[0].coord(0), segment[0].coord(1),
+				segment[1].coord(0), segment[1].coord(1));
+	}
+
+	/**
+	 * Give the nodes of the cell that holds point the edge length h at point, grown to them.
+	 */
+	private void seed(Pnt point, double h, double grading){
+		if(Double.isInfinite(h)) return; //A lone segment: no feature nearby
+		double x = point.coord(0), y = point.coord(1);
+		double cellSize = grid.obtainCellSize();
+		int i0 = (int) Math.floor((x - grid.nodeX(0)) / cellSize);
+		int j0 = (int) Math.floor((y - grid.nodeY(0)) / cellSize);
+		for(int i = Math.max(0, i0); i <= Math.min(grid.obtainColumns(), i0 + 1); i++)
+			for(int j = Math.max(0, j0); j <= Math.min(grid.obtainRows(), j0 + 1); j++){
+				double value = h + grading*Math.hypot(grid.nodeX(i) - x, grid.nodeY(j) - y);
+				if(value < grid.get(i, j)) grid.set(i, j, value);
+			}
+	}
+
+	/**
+	 * Spread the seeded edge lengths over the grid, growing by grading per unit of distance:
+	 * one pass from the bottom left and one from the top right, over 8 neighbours.
+	 */
+	private void spread(double grading){
+		int columns = grid.obtainColumns(), rows = grid.obtainRows();
+		double straight = grading*grid.obtainCellSize(), diagonal = straight*Math.sqrt(2);
+		for(int j = 0; j <= rows; j++)
+			for(int i = 0; i <= columns; i++){
+				double h = grid.get(i, j);
+				if(i > 0) h = Math.min(h, grid.get(i-1, j) + straight);
+				if(j > 0) h = Math.min(h, grid.get(i, j-1) + straight);
+				if(i > 0 && j > 0) h = Math.min(h, grid.get(i-1, j-1) + diagonal);
+				if(i < columns && j > 0) h = Math.min(h, grid.get(i+1, j-1) + diagonal);
+				grid.set(i, j, h);
+			}
+		for(int j = rows; j >= 0; j--)
+			for(int i = columns; i >= 0; i--){
+				double h = grid.get(i, j);
+				if(i < columns) h = Math.min(h, grid.get(i+1, j) + straight);
+				if(j < rows) h = Math.min(h, grid.get(i, j+1) + straight);
+				if(i < columns && j < rows) h = Math.min(h, grid.get(i+1, j+1) + diagonal);
+				if(i > 0 && j < rows) h = Math.min(h, grid.get(i-1, j+1) + diagonal);
+				grid.set(i, j, h);
+			}
+	}
+
+}
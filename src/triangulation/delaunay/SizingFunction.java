@@ -0,0 +1,18 @@
+package triangulation.delaunay;
+
+/**
+ * The size of the triangles that refinement aims for, which may vary over the domain:
+ * a triangle is too big if its area is larger than the value at its centroid.
+ *
+ * See UniformSize for one size everywhere, SizingGrid for sizes given on a grid, and
+ * LocalFeatureSize for sizes that follow the PSLG.
+ *
+ */
+public interface SizingFunction {
+
+	/**
+	 * @return the largest area allowed for a triangle whose centroid is (x,y)
+	 */
+	public double maxArea(double x, double y);
+
+}
@@ -0,0 +1,91 @@
+package triangulation.delaunay;
+
+import java.util.Arrays;
+
+/**
+ * Largest areas given at the nodes of a regular grid, and interpolated bilinearly in
+ * between. Outside the grid, the value at the nearest point of the grid applies.
+ *
+ */
+public class SizingGrid implements SizingFunction {
+
+	private final double minX, minY;	// Node (0,0)
+	private final double cellSize;
+	private final int columns, rows;	// Number of cells; there is one more node each way
+	private final double[] values;		// Node (i,j) at i + j*(columns+1)
+
+	/**
+	 * @param minX the x coordinate of the first column of nodes
+	 * @param minY the y coordinate of the first row of nodes
+	 * @param cellSize the distance between nodes
+	 * @param columns the number of cells across
+	 * @param rows the number of cells up
+	 * @param maxArea the value at every node to start with
+	 */
+	public SizingGrid(double minX, double minY, double cellSize, int columns, int rows, double maxArea){
+		if(!(cellSize > 0) || columns < 1 || rows < 1)
+			throw new IllegalArgumentException("Grid must have at least one cell of positive size");
+		this.minX = minX;
+		this.minY = minY;
+		this.cellSize = cellSize;
+		this.columns = columns;
+		this.rows = rows;
+		this.values = new double[(columns+1)*(rows+1)];
+		Arrays.fill(values, maxArea);
+	}
+
+	/**
+	 * @param i 0..columns
+	 * @param j 0..rows
+	 * @param maxArea the largest area allowed at node (i,j)
+	 */
+	public void set(int i, int j, double maxArea){
+		values[i + j*(columns+1)] = maxArea;
+	}
+
+	/**
+	 * @return the value at node (i,j)
+	 */
+	public double get(int i, int j){
+		return values[i + j*(columns+1)];
+	}
+
+	/**
+	 * @return the x coordinate of the nodes of column i
+	 */
+	public double nodeX(int i){
+		return minX + i*cellSize;
+	}
+
+	/**
+	 * @return the y coordinate of the nodes of row j
+	 */
+	public double nodeY(int j){
+		return minY + j*cellSize;
+	}
+
+	public double obtainCellSize(){
+		return cellSize;
+	}
+
+	public int obtainColumns(){
+		return columns;
+	}
+
+	public int obtainRows(){
+		return rows;
+	}
+
+	@Override
+	public double maxArea(double x, double y){
+		double u = Math.min(columns, Math.max(0, (x - minX) / cellSize));
+		double v = Math.min(rows, Math.max(0, (y - minY) / cellSize));
+		int i = Math.min(columns - 1, (int) u), j = Math.min(rows - 1, (int) v);
+		u -= i;
+		v -= j;
+		int k = i + j*(columns+1);
+		return (1-v)*((1-u)*values[k] + u*values[k+1])
+				+ v*((1-u)*values[k+columns+1] + u*values[k+columns+2]);
+	}
+
+}
@@ -0,0 +1,121 @@
+package triangulation.delaunay;
+
+import triangulation.Pnt;
+import triangulation.Triangle;
+import triangulation.Triangulation;
+
+/**
+ * The test for bad triangles used by refinement: a triangle is bad if its smallest
+ * angle is smaller than minAngle or its area is larger than maxArea, unless it is
+ * attached to the initial triangle. With a SizingFunction, maxArea is the value of
+ * the function at the centroid of the triangle.
+ *
+ * The thresholds are prepared once, so a test needs no acos or square root: the
+ * smallest angle is opposite the shortest edge, and by the law of cosines it is
+ * smaller than minAngle iff (s1 + s2 - opp)^2 > 4 cos^2(minAngle) s1 s2, with s1, s2
+ * and opp the squared edge lengths.
+ *
+ */
+public class TriangleQuality {
+
+	private final double minAngle;
+	private final double maxArea;		// Only used without sizing
+	private final SizingFunction sizing;	// null if maxArea is the same everywhere
+	private final double cosSquared;	// cos^2(minAngle); only used if minAngle < 90 degrees
+	private final double sinSquared;	// sin^2(minAngle)
+	private final Triangle initialTriangle;
+
+	/**
+	 * @param trilation the triangulation whose triangles are tested
+	 * @param minAngle the smallest angle allowed (radians)
+	 * @param maxArea the largest area allowed
+	 */
+	public TriangleQuality(Triangulation trilation, double minAngle, double maxArea){
+		this(trilation, minAngle, new UniformSize(maxArea));
+	}
+
+	/**
+	 * @param trilation the triangulation whose triangles are tested
+	 * @param minAngle the smallest angle allowed (radians)
+	 * @param sizing the largest area allowed, by position
+	 */
+	public TriangleQuality(Triangulation trilation, double minAngle, SizingFunction sizing){
+		this.minAngle = minAngle;
+		if(sizing instanceof UniformSize){
+			this.maxArea = ((UniformSize) sizing).obtainMaxArea();
+			this.sizing = null;
+		}else{
+			this.maxArea = Double.NaN;
+			this.sizing = sizing;
+		}
+		double cos = Math.cos(minAngle);
+		this.cosSquared = cos*cos;
+		this.sinSquared = 1 - cos*cos;
+		this.initialTriangle = trilation.obtainInitialTriangle();
+	}
+
+	/**
+	 * Edge-flips change triangles in place, so a triangle that was found bad may have
+	 * other vertices by the time it is treated: check again before treating it.
+	 *
+	 * @return true iff triangle has a minimum angle smaller than minAngle and/or
+	 * a surface area greater than maxArea, and is not attached to the initial triangle.
+	 */
+	public boolean isBad(Triangle triangle){
+		Pnt a = triangle.get(0), b = triangle.get(1), c = triangle.get(2);
+		double ax = a.coord(0), ay = a.coord(1), bx = b.coord(0), by = b.coord(1), cx = c.coord(0), cy = c.coord(1);
+		double area = Math.abs((bx - ax)*(cy - ay) - (by - ay)*(cx - ax)) / 2;
+		if(!(area > maxArea(ax, ay, bx, by, cx, cy) || isSkinny(ax, ay, bx, by, cx, cy))) return false;
+		return !triangle.containsAny(initialTriangle); //TODO: Check if not an external triangle
+	}
+
+	/**
+	 * How bad a triangle is, to treat the worst triangles first: the larger of
+	 * (sin(minAngle) / sin(smallest angle))^2, which is also the squared ratio of
+	 * circumradius to shortest edge relative to that of the smallest angle allowed, and
+	 * (area / maxArea)^2. Bad triangles have a priority above 1 (about, see isBad).
+	 * 
+	 * @return the priority of triangle; larger is worse
+	 */
+	public double priority(Triangle triangle){
+		Pnt a = triangle.get(0), b = triangle.get(1), c = triangle.get(2);
+		double ax = a.coord(0), ay = a.coord(1), bx = b.coord(0), by = b.coord(1), cx = c.coord(0), cy = c.coord(1);
+		double area = Math.abs((bx - ax)*(cy - ay) - (by - ay)*(cx - ax)) / 2 / maxArea(ax, ay, bx, by, cx, cy);
+		double ab = (bx - ax)*(bx - ax) + (by - ay)*(by - ay);
+		double bc = (cx - bx)*(cx - bx) + (cy - by)*(cy - by);
+		double ca = (ax - cx)*(ax - cx) + (ay - cy)*(ay - cy);
+		double opp, s1, s2;
+		if(ab <= bc && ab <= ca){ opp = ab; s1 = bc; s2 = ca; }
+		else if(bc <= ca){ opp = bc; s1 = ab; s2 = ca; }
+		else{ opp = ca; s1 = ab; s2 = bc; }
+		double num = s1 + s2 - opp;
+		double sin = 4*s1*s2 - num*num; //4 s1 s2 sin^2 of the smallest angle
+		double angle = (sin > 0)? sinSquared*4*s1*s2 / sin : Double.POSITIVE_INFINITY;
+		return Math.max(angle, area*area);
+	}
+
+	/**
+	 * @return the largest area allowed for triangle abc
+	 */
+	private double maxArea(double ax, double ay, double bx, double by, double cx, double cy){
+		if(sizing == null) return maxArea;
+		return sizing.maxArea((ax + bx + cx) / 3, (ay + by + cy) / 3);
+	}
+
+	/**
+	 * @return true iff the smallest angle of abc is smaller than minAngle
+	 */
+	private boolean isSkinny(double ax, double ay, double bx, double by, double cx, double cy){
+		if(minAngle >= Math.PI/2) return true; //The smallest angle is at most 60 degrees
+		double ab = (bx - ax)*(bx - ax) + (by - ay)*(by - ay);
+		double bc = (cx - bx)*(cx - bx) + (cy - by)*(cy - by);
+		double ca = (ax - cx)*(ax - cx) + (ay - cy)*(ay - cy);
+		double opp, s1, s2;
+		if(ab <= bc && ab <= ca){ opp = ab; s1 = bc; s2 = ca; }
+		else if(bc <= ca){ opp = bc; s1 = ab; s2 = ca; }
+		else{ opp = ca; s1 = ab; s2 = bc; }
+		double num = s1 + s2 - opp; //Not negative, as opp is the shortest edge
+		return num*num > 4*cosSquared*s1*s2;
+	}
+
+}
@@ -0,0 +1,30 @@
+package triangulation.delaunay;
+
+/**
+ * The same largest area everywhere, as in DelaunayRefineAlgorithm.refine(..., maxArea).
+ *
+ */
+public class UniformSize implements SizingFunction {
+
+	private final double maxArea;
+
+	/**
+	 * @param maxArea the largest area allowed
+	 */
+	public UniformSize(double maxArea){
+		this.maxArea = maxArea;
+	}
+
+	@Override
+	public double maxArea(double x, double y){
+		return maxArea;
+	}
+
+	/**
+	 * @return the largest area allowed
+	 */
+	public double obtainMaxArea(){
+		return maxArea;
+	}
+
+}
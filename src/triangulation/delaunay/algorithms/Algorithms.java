@@ -3,7 +3,10 @@ package triangulation.delaunay.algorithms;
 
 public enum Algorithms {
 	Lawson("Lawson"),
-	BowyerWatson("Bowyer Watson");
+	BowyerWatson("Bowyer Watson"),
+	DivideAndConquer("Divide and conquer"),
+	SweepHull("Sweep hull"),
+	ParallelDivideAndConquer("Parallel divide and conquer");
 	
 	private String name;
 	
@@ -22,6 +25,15 @@ public enum Algorithms {
 		if(this == Lawson){
 			return new Lawson();			
 		}
+		if(this == DivideAndConquer){
+			return new DivideAndConquer();
+		}
+		if(this == SweepHull){
+			return new SweepHull();
+		}
+		if(this == ParallelDivideAndConquer){
+			return new DivideAndConquer(Runtime.getRuntime().availableProcessors());
+		}
 		return null;
 	}
 }
@@ -1,11 +1,14 @@
 package triangulation.delaunay.algorithms;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import triangulation.Geometry2D;
 import triangulation.Pnt;
 import triangulation.Triangle;
 import triangulation.Triangulation;
+import triangulation.Workspace;
 import triangulation.delaunay.DelaunayUtils;
 
 /**
@@ -13,7 +16,7 @@ import triangulation.delaunay.DelaunayUtils;
  * @author Kevin van As
  *
  */
-public class BowyerWatson implements DelaunayAlgorithm {
+public class BowyerWatson implements ConcurrentDelaunayAlgorithm {
 
     /**
      * Place a new site into the DT.
@@ -33,80 +36,316 @@ public class BowyerWatson implements DelaunayAlgorithm {
             throw new IllegalArgumentException("No containing triangle");
         if (triangle.contains(site)) return;
 
+        // A site exactly on a segment of the PSLG is blocked from both sides: split the segment
+        Pnt opposite = triangle.isOn(site);
+        if (opposite != null && trilation.isPSLG(triangle, triangle.indexOf(opposite))) {
+            trilation.recordSplit(triangle.facetOpposite(opposite), site);
+            splitEdge(site, triangle, triangle.indexOf(opposite), trilation);
+            return;
+        }
+
         // Determine the cavity and update the triangulation
-        Set<Triangle> cavity = DelaunayUtils.getCavity(site, triangle, trilation);
-        update(site, cavity, trilation);		
+        Workspace workspace = trilation.obtainWorkspace();
+        DelaunayUtils.getCavity(site, triangle, trilation, workspace);
+        update(site, workspace, trilation);
 	}
 
+	@Override
+	public Set<Triangle> findCavity(Pnt site, Triangle triangle, Triangulation trilation) {
+		return DelaunayUtils.getCavity(site, triangle, trilation);
+	}
+
+	@Override
+	public void fillCavity(Pnt site, Set<Triangle> cavity, Triangulation trilation) {
+		Workspace workspace = trilation.obtainWorkspace();
+		workspace.newEpoch();
+		workspace.cavity.clear();
+		for (Triangle triangle: cavity) {
+			workspace.cavity.push(triangle);
+			workspace.markCavity(triangle);
+		}
+		update(site, workspace, trilation);
+	}
+
+	/**
+	 * Place site (if it is new) and then the segment <anchor,site>, see DelaunayUtils.insertSegment.
+	 * Nothing is changed if the segment would cross the PSLG.
+	 * @return false iff the segment crosses the PSLG
+	 */
 	@Override
 	public boolean delaunayPlaceBoundary(Pnt site, Pnt anchor,
 			Triangulation trilation) {
-        //TODO: Does not work with PSLG yet.
-		return false;
+        Triangle triangle = trilation.locate(site);
+        if (triangle == null)
+            throw new IllegalArgumentException("No containing triangle");
+        if (DelaunayUtils.crossesPSLG(anchor, site, trilation)) return false;
+        if (!triangle.contains(site)) delaunayPlace(site, trilation);
+        DelaunayUtils.recoverSegment(anchor, site, trilation);
+        return true;
 	}
 
 	/**
      * Update the triangulation by removing the cavity triangles and then
      * filling the cavity with new triangles.
+     * 
+     * The cavity is star-shaped from site, so its boundary is one cycle of facets.
+     * It is walked in order by pivoting around the last vertex reached: from a boundary
+     * facet <u,v> of triangle t, the next facet around v is <v,x> (x the third vertex
+     * of t); if the triangle across it is in the cavity, continue there, otherwise <v,x>
+     * is the next boundary facet. Each boundary facet gets the new triangle <site,u,v>,
+     * linked to the triangle outside and to the new triangles before and after it.
+     * 
+     * Uses the pntStackU and triangleStack of the workspace.
      * @author Paul Chew (no PSLG), Kevin van As (PSLG included)
      * @param site the site that created the cavity
-     * @param cavity the triangles with site in their circumcircle
+     * @param workspace holds the cavity (triangles with site in their circumcircle)
      */
-    private void update (Pnt site, Set<Triangle> cavity, Triangulation trilation) {
-        Set<Set<Pnt>> boundary = new HashSet<Set<Pnt>>();
-        Set<Triangle> theTriangles = new HashSet<Triangle>();
-
-        // Find boundary facets and adjacent triangles
-        for (Triangle triangle: cavity) {
-            theTriangles.addAll(trilation.neighbors(triangle));
-            for (Pnt vertex: triangle) {
-                Set<Pnt> facet = triangle.facetOpposite(vertex);
-                if (boundary.contains(facet)) boundary.remove(facet); //This will trigger twice for interior facets, causing the net effect to be their removal.
-                else boundary.add(facet);
+    private void update (Pnt site, Workspace workspace, Triangulation trilation) {
+        Workspace.TriangleStack cavity = workspace.cavity;
+        Workspace.PntStack boundary = workspace.pntStackU;          // Vertices of the boundary, in order
+        Workspace.TriangleStack outside = workspace.triangleStack;  // Triangle across facet <boundary(k),boundary(k+1)>
+        boundary.clear();
+        outside.clear();
+
+        // Find a first boundary facet <u,v>
+        Triangle t = null;
+        Pnt u = null, v = null;
+        search: for (int k = 0; k < cavity.size(); k++) {
+            Triangle triangle = cavity.get(k);
+            for (int i = 0; i < 3; i++) {
+                Triangle neighbor = trilation.neighborOpposite(triangle.get(i), triangle);
+                if (neighbor != null && workspace.isInCavity(neighbor)) continue; //Interior facet
+                t = triangle;
+                u = triangle.get((i+1)%3);
+                v = triangle.get((i+2)%3);
+                boundary.push(u);
+                outside.push(neighbor);
+                break search;
+            }
+        }
+        Pnt first = u;
+
+        // Walk the boundary
+        while (v != first) {
+            Pnt x = thirdVertex(t, u, v);
+            Triangle neighbor = trilation.neighborOpposite(u, t); // Across <v,x>
+            if (neighbor != null && workspace.isInCavity(neighbor)) {
+                t = neighbor;
+                u = x;
+            } else {
+                boundary.push(v);
+                outside.push(neighbor);
+                u = v;
+                v = x;
             }
         }
-        theTriangles.removeAll(cavity);        // Adj triangles only
 
         // Remove the cavity triangles from the triangulation
-        for (Triangle triangle: cavity) trilation.removeFromGraph(triangle);
+        for (int k = 0; k < cavity.size(); k++) trilation.removeFromGraph(cavity.get(k));
 
-        // Build each new triangle and add it to the triangulation: Bowyer/Watson algorithm.
-        Set<Triangle> newTriangles = new HashSet<Triangle>();
-        for (Set<Pnt> vertices: boundary) {
-            vertices.add(site);
-            Triangle tri = new Triangle(vertices);
+        // Build the fan of new triangles and link them: Bowyer/Watson algorithm
+        int k = boundary.size();
+        Triangle firstTriangle = null, previous = null;
+        for (int i = 0; i < k; i++) {
+            Triangle tri = new Triangle(site, boundary.get(i), boundary.get((i+1)%k));
             trilation.addToGraph(tri);
-            newTriangles.add(tri);
+            if (outside.get(i) != null) trilation.addLinkToGraph(tri, outside.get(i));
+            if (previous != null) trilation.addLinkToGraph(tri, previous);
+            else firstTriangle = tri;
+            previous = tri;
         }
+        trilation.addLinkToGraph(previous, firstTriangle);
+        boundary.clear();
+        outside.clear();
+    }
 
-        // Update the graph links for each new triangle
-        theTriangles.addAll(newTriangles);    // Adj triangle + new triangles
-        for (Triangle triangle: newTriangles)
-            for (Triangle other: theTriangles)
-                if (triangle.isNeighbor(other))
-                    trilation.addLinkToGraph(triangle, other);
-        
-        
+    /**
+     * @return the vertex of triangle that is neither u nor v
+     */
+    private static Pnt thirdVertex (Triangle triangle, Pnt u, Pnt v) {
+        for (int i = 0; i < 3; i++) {
+            Pnt vertex = triangle.get(i);
+            if (vertex != u && vertex != v) return vertex;
+        }
+        return null;
     }
 
     /**
-     * TODO: Required for refinement algorithms.
-     * 
+     * Split a segment of the PSLG at its midpoint, see splitEdge.
      */
 	@Override
 	public void splitBoundary(Set<Pnt> segment, Triangulation trilation) {
-		// TODO Auto-generated method stub
-		
+		Pnt[] segmentAB = segment.toArray(new Pnt[0]);
+		Pnt pntC = segmentAB[0].midPoint(segmentAB[1]);
+		for (Triangle triangle: trilation.surroundingTriangles(segmentAB[0], trilation.locate(segmentAB[0]))) {
+			int j = triangle.indexOf(segmentAB[1]);
+			if (j < 0) continue;
+			splitEdge(pntC, triangle, 3 - j - triangle.indexOf(segmentAB[0]), trilation);
+			return;
+		}
+	}
+
+    /**
+     * Insert a site which lies on the edge opposite vertex i of triangle. The site lies on
+     * the circumcircle of neither triangle on the edge, but on their common edge, so the cavity
+     * is grown from both of them: the edge is inside the cavity, and the site sees both sides.
+     * If the edge is PSLG, so are its two halves.
+     */
+	private void splitEdge(Pnt site, Triangle triangle, int i, Triangulation trilation) {
+		Pnt a = triangle.get((i+1)%3), b = triangle.get((i+2)%3);
+		boolean isPSLG = trilation.isPSLG(triangle, i);
+		Workspace workspace = trilation.obtainWorkspace();
+		getSplitCavity(site, triangle, i, trilation, workspace);
+		update(site, workspace, trilation);
+		if (isPSLG) markHalves(site, a, b, trilation);
+	}
+
+	@Override
+	public Set<Triangle> findSplitCavity(Pnt site, Triangle triangle, int i, Triangulation trilation) {
+		Workspace workspace = trilation.obtainWorkspace();
+		getSplitCavity(site, triangle, i, trilation, workspace);
+		Set<Triangle> cavity = new HashSet<Triangle>();
+		for (int k = 0; k < workspace.cavity.size(); k++) cavity.add(workspace.cavity.get(k));
+		return cavity;
+	}
+
+	@Override
+	public void fillSplitCavity(Pnt site, Pnt a, Pnt b, Set<Triangle> cavity, Triangulation trilation) {
+		boolean isPSLG = false;
+		for (Triangle triangle: cavity) {
+			int ia = triangle.indexOf(a), ib = triangle.indexOf(b);
+			if (ia < 0 || ib < 0) continue;
+			isPSLG = trilation.isPSLG(triangle, 3 - ia - ib);
+			break;
+		}
+		fillCavity(site, cavity, trilation);
+		if (isPSLG) markHalves(site, a, b, trilation);
 	}
 
 	/**
-	 * TODO: Required for refinement algorithms.
+	 * The cavity of splitEdge, without changing trilation: afterwards the cavity stack of
+	 * workspace holds it (see DelaunayUtils.getCavity).
+	 */
+	private static void getSplitCavity(Pnt site, Triangle triangle, int i, Triangulation trilation, Workspace workspace) {
+		// The triangles on the edge form the start of the cavity
+		workspace.newEpoch();
+		workspace.cavity.clear();
+		workspace.queue.clear();
+		workspace.cavity.push(triangle);
+		workspace.markCavity(triangle);
+		Triangle other = trilation.neighborOpposite(triangle.get(i), triangle);
+		if (other != null) {
+			workspace.cavity.push(other);
+			workspace.markCavity(other);
+		}
+		for (int k = 0; k < workspace.cavity.size(); k++) {
+			Triangle t = workspace.cavity.get(k);
+			for (int j = 0; j < 3; j++) {
+				Triangle neighbor = trilation.neighborOpposite(t.get(j), t);
+				if (neighbor == null || workspace.isMarked(neighbor)) continue;
+				workspace.mark(neighbor);
+				workspace.queue.push(neighbor);
+			}
+		}
+		DelaunayUtils.growCavity(site, trilation, workspace);
+	}
+
+	/**
+	 * Make the two halves <a,site> and <site,b> of a split segment PSLG
+	 * (locate finds a new triangle right away: it starts at the most recent one).
+	 */
+	private static void markHalves(Pnt site, Pnt a, Pnt b, Triangulation trilation) {
+		for (Triangle t: trilation.surroundingTriangles(site, trilation.locate(site))) {
+			int c = t.indexOf(site);
+			int ia = t.indexOf(a), ib = t.indexOf(b);
+			if (ia >= 0) trilation.setPSLG(t, 3 - c - ia, true);
+			if (ib >= 0) trilation.setPSLG(t, 3 - c - ib, true);
+		}
+	}
+
+	/**
+	 * Remove site, and fill the hole: the star of site, a polygon that site sees completely.
+	 * 
+	 * The hole is filled by cutting off ears: triangles of three consecutive vertices that
+	 * turn the same way as the polygon. Of all ears, the one whose circumcircle has the
+	 * largest power |site-center|^2 - radius^2 with respect to site is Delaunay (O. Devillers,
+	 * "On deletion in Delaunay triangulations", 1999), so it is cut off first. This takes
+	 * O(k^2) for k neighbours of site.
+	 * Edges of the polygon keep their PSLG flags; the segments that end in site are gone.
 	 * 
+	 * Uses the pntStackU and triangleStack of the workspace.
 	 */
 	@Override
 	public void delaunayRemove(Pnt site, Triangulation trilation) {
-		// TODO Auto-generated method stub
+		Triangle start = trilation.locate(site);
+		if (start == null || !start.contains(site)) return;
+		site = start.get(start.indexOf(site));
+		List<Triangle> star = trilation.surroundingTriangles(site, start);
 		
+		// The polygon: edge <polygon(k),polygon(next[k])> has the triangle outside(k) across
+		Workspace workspace = trilation.obtainWorkspace();
+		Workspace.PntStack polygon = workspace.pntStackU;
+		Workspace.TriangleStack outside = workspace.triangleStack;
+		polygon.clear();
+		outside.clear();
+		Pnt vertex = start.getVertexButNot(site);
+		for (Triangle triangle: star) {
+			polygon.push(vertex);
+			outside.push(trilation.neighborOpposite(site, triangle));
+			vertex = thirdVertex(triangle, site, vertex);
+		}
+		int n = polygon.size();
+		int[] next = new int[n], previous = new int[n];
+		for (int k = 0; k < n; k++) {
+			next[k] = (k+1)%n;
+			previous[(k+1)%n] = k;
+		}
+		double turn = Math.signum(orient(site, polygon.get(0), polygon.get(1)));
+		
+		for (Triangle triangle: star) trilation.removeFromGraph(triangle);
+		
+		// Cut off ears until one triangle is left
+		double[] center = new double[2];
+		int ear = 0;
+		for (int left = n; left > 3; left--) {
+			double best = Double.NEGATIVE_INFINITY;
+			int k = ear;
+			for (int count = 0; count < left; count++, k = next[k]) {
+				Pnt a = polygon.get(previous[k]), b = polygon.get(k), c = polygon.get(next[k]);
+				if (Math.signum(orient(a, b, c)) != turn) continue; // Reflex or flat
+				Geometry2D.circumcenter(a.coord(0), a.coord(1), b.coord(0), b.coord(1), c.coord(0), c.coord(1), center);
+				double power = square(site.coord(0) - center[0]) + square(site.coord(1) - center[1])
+						- square(a.coord(0) - center[0]) - square(a.coord(1) - center[1]);
+				if (power > best) {
+					best = power;
+					ear = k;
+				}
+			}
+			int p = previous[ear], q = next[ear];
+			Triangle triangle = new Triangle(polygon.get(p), polygon.get(ear), polygon.get(q));
+			trilation.addToGraph(triangle);
+			if (outside.get(p) != null) trilation.addLinkToGraph(triangle, outside.get(p));
+			if (outside.get(ear) != null) trilation.addLinkToGraph(triangle, outside.get(ear));
+			next[p] = q;
+			previous[q] = p;
+			outside.set(p, triangle); // Now across the edge <p,q>
+			ear = q;
+		}
+		int p = previous[ear], q = next[ear];
+		Triangle triangle = new Triangle(polygon.get(p), polygon.get(ear), polygon.get(q));
+		trilation.addToGraph(triangle);
+		for (int k: new int[]{p, ear, q})
+			if (outside.get(k) != null) trilation.addLinkToGraph(triangle, outside.get(k));
+		polygon.clear();
+		outside.clear();
+	}
+
+	private static double orient (Pnt a, Pnt b, Pnt c) {
+		return Geometry2D.orient2d(a.coord(0), a.coord(1), b.coord(0), b.coord(1), c.coord(0), c.coord(1));
+	}
+
+	private static double square (double x) {
+		return x*x;
 	}
 	
 }
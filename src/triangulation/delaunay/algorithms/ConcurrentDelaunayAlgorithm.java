@@ -0,0 +1,52 @@
+package triangulation.delaunay.algorithms;
+
+import java.util.Set;
+
+import triangulation.Pnt;
+import triangulation.Triangle;
+import triangulation.Triangulation;
+
+/**
+ *
+ * An algorithm that inserts a site by replacing a cavity: a set of triangles that
+ * can be found without changing the triangulation. This allows several threads to
+ * insert sites into one Triangulation at once (see Triangulation.enableConcurrentInsertion()):
+ * the cavities are found in parallel, and each one is filled once its triangles, and the
+ * triangles around it, are held by the inserting thread.
+ *
+ */
+public interface ConcurrentDelaunayAlgorithm extends DelaunayAlgorithm {
+
+	/**
+	 * Find the triangles to replace when inserting site.
+	 * Must not change trilation: other threads may be calling it at the same time.
+	 * @param site the new site, not a vertex of trilation
+	 * @param triangle the triangle holding site
+	 * @return the cavity: a connected set of triangles, including triangle
+	 */
+	public Set<Triangle> findCavity(Pnt site, Triangle triangle, Triangulation trilation);
+
+	/**
+	 * Replace the cavity by triangles that use site.
+	 * The cavity and its neighbours are unchanged since findCavity.
+	 * @param site the new site
+	 * @param cavity the triangles found by findCavity(site, ...)
+	 */
+	public void fillCavity(Pnt site, Set<Triangle> cavity, Triangulation trilation);
+
+	/**
+	 * Find the triangles to replace when splitting the edge opposite vertex i of triangle
+	 * at site (see splitBoundary). Must not change trilation, like findCavity.
+	 * @param site a point on the edge, not a vertex of trilation
+	 * @return the cavity: a connected set of triangles, including the triangles on the edge
+	 */
+	public Set<Triangle> findSplitCavity(Pnt site, Triangle triangle, int i, Triangulation trilation);
+
+	/**
+	 * Replace the cavity by triangles that use site, which splits the edge <a,b>.
+	 * If the edge is PSLG, so are its two halves.
+	 * The cavity and its neighbours are unchanged since findSplitCavity.
+	 * @param cavity the triangles found by findSplitCavity(site, ...)
+	 */
+	public void fillSplitCavity(Pnt site, Pnt a, Pnt b, Set<Triangle> cavity, Triangulation trilation);
+}
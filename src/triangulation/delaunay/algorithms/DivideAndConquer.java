@@ -0,0 +1,425 @@
+package triangulation.delaunay.algorithms;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import triangulation.Geometry2D;
+import triangulation.Pnt;
+import triangulation.Triangle;
+import triangulation.Triangulation;
+
+/**
+ *
+ * Guibas and Stolfi's divide-and-conquer algorithm, O(n log n).
+ *
+ * The sites are sorted on x (then y), split in two halves, triangulated recursively,
+ * and the two halves are merged by zipping them together from the bottom up.
+ * The triangulation is built in a quad-edge structure stored in int arrays:
+ * quad-edge q consists of the four directed edges 4q..4q+3 (e, its rotation, its
+ * symmetric, its inverse rotation). Only the primal edges (4q and 4q+2) have an origin.
+ * When done, the faces are handed to the Triangulation as Triangles.
+ *
+ * Sites that are added later (and boundaries, splits and removals) are handled by Bowyer-Watson.
+ *
+ * With more than one thread, the sort and the recursion run as ForkJoin tasks: the two
+ * halves of a large enough range are triangulated in parallel, and merged once both are
+ * done. Each range of k sites owns its own 3k quad-edge slots, which is enough because a
+ * planar graph on k sites never has more than 3k edges; deleted slots are reused. As the
+ * recursion splits the sites at the same places, the result is the same as with one thread.
+ *
+ * Reference: L. Guibas and J. Stolfi, Primitives for the manipulation of general
+ * subdivisions and the computation of Voronoi diagrams, ACM TOG 4(2), 1985.
+ *
+ */
+public class DivideAndConquer implements StaticDelaunayAlgorithm {
+
+	private final static boolean debug = false;
+	private final static int parallelCutoff = 1 << 13;		// Smaller ranges are done by a single thread
+
+	private DelaunayAlgorithm incremental = new BowyerWatson();	// Used for everything but the initial triangulation
+
+	// Quad-edge storage (valid during one delaunayPlace(List, Triangulation) call)
+	private double[] xs, ys;		// Site coordinates, sorted
+	private int[] onext;			// Directed edge -> next edge ccw around its origin
+	private int[] org;				// Primal directed edge -> index of its origin site
+	private boolean[] deleted;		// Quad-edge -> deleted (or never used)?
+
+	private int threads;			// Number of threads to use
+
+	/**
+	 * A sequential divide-and-conquer algorithm.
+	 */
+	public DivideAndConquer(){
+		this(1);
+	}
+
+	/**
+	 * @param threads the number of threads to triangulate with
+	 */
+	public DivideAndConquer(int threads){
+		this.threads = Math.max(1, threads);
+	}
+
+	@Override
+	public void delaunayPlace(List<Pnt> sites, Triangulation trilation) {
+		Triangle initial = trilation.obtainInitialTriangle();
+		int n = sites.size() + 3;
+		Pnt[] pnts = new Pnt[n];
+		for(int i = 0; i < 3; i++) pnts[i] = initial.get(i);
+		for(int i = 3; i < n; i++) pnts[i] = sites.get(i-3);
+
+		//Sort the sites on x, then y:
+		int[] order = new int[n];
+		for(int i = 0; i < n; i++) order[i] = i;
+		xs = new double[n];
+		ys = new double[n];
+		for(int i = 0; i < n; i++){
+			xs[i] = pnts[i].coord(0);
+			ys[i] = pnts[i].coord(1);
+		}
+		Pnt[] sorted = new Pnt[n];
+		int capacity = 3*n;
+		ForkJoinPool pool = (threads > 1)? new ForkJoinPool(threads) : null;
+		try{
+			if(pool == null) mergeSort(order, new int[n], 0, n);
+			else pool.invoke(new Sort(order, new int[n], 0, n));
+			for(int i = 0; i < n; i++){
+				sorted[i] = pnts[order[i]];
+				xs[i] = sorted[i].coord(0);
+				ys[i] = sorted[i].coord(1);
+			}
+
+			onext = new int[4*capacity];
+			org = new int[4*capacity];
+			deleted = new boolean[capacity];
+			Arrays.fill(deleted, true);
+
+			Slots slots = new Slots(0, capacity);
+			if(pool == null) triangulate(0, n, slots);
+			else pool.invoke(new Triangulate(0, n, slots));
+		}finally{
+			if(pool != null) pool.shutdown();	//Also when a task threw, or its workers would linger
+		}
+		if(debug)System.out.println("(DivideAndConquer) " + n + " sites triangulated with " + threads + " thread(s)");
+
+		//Hand the faces to the triangulation:
+		trilation.removeFromGraph(initial);
+		Triangle[] face = new Triangle[4*capacity];		//Directed edge -> Triangle to its left
+		for(int q = 0; q < capacity; q++){
+			if(deleted[q]) continue;
+			for(int e = 4*q; e < 4*q+4; e += 2){
+				if(face[e] != null) continue;
+				int e1 = lnext(e), e2 = lnext(e1);
+				if(lnext(e2) != e) continue;						//Not a triangle: the outer face
+				int a = org[e], b = org[e1], c = org[e2];
+				if(Geometry2D.orient2d(xs[a], ys[a], xs[b], ys[b], xs[c], ys[c]) <= 0) continue;
+				Triangle triangle = new Triangle(sorted[a], sorted[b], sorted[c]);
+				trilation.addToGraph(triangle);
+				face[e] = face[e1] = face[e2] = triangle;
+			}
+		}
+		for(int e = 0; e < 4*capacity; e += 2){
+			if(face[e] != null && face[sym(e)] != null && e < sym(e))
+				trilation.addLinkToGraph(face[e], face[sym(e)]);
+		}
+		xs = ys = null;
+		onext = org = null;
+		deleted = null;
+	}
+
+	/**
+	 * Triangulate sites lo..hi-1 (at least two).
+	 * @param slots the quad-edge slots of this range of sites
+	 * @return {le, re}: the ccw convex hull edge out of the leftmost site and
+	 * the cw convex hull edge out of the rightmost site
+	 */
+	private int[] triangulate(int lo, int hi, Slots slots){
+		int n = hi - lo;
+		if(n == 2){
+			int a = makeEdge(lo, lo+1, slots);
+			return new int[]{a, sym(a)};
+		}
+		if(n == 3){
+			int a = makeEdge(lo, lo+1, slots);
+			int b = makeEdge(lo+1, lo+2, slots);
+			splice(sym(a), b);
+			double o = orient(lo, lo+1, lo+2);
+			if(o > 0){
+				connect(b, a, slots);
+				return new int[]{a, sym(b)};
+			}
+			if(o < 0){
+				int c = connect(b, a, slots);
+				return new int[]{sym(c), c};
+			}
+			return new int[]{a, sym(b)};					//Collinear
+		}
+		int mid = lo + n/2;
+		int[] left = triangulate(lo, mid, slots);
+		int[] right = triangulate(mid, hi, slots);
+		return merge(left, right, slots);
+	}
+
+	/**
+	 * Merge the triangulations of two adjacent ranges of sites.
+	 * @param left the hull edges of the left range, as returned by triangulate
+	 * @param right the hull edges of the right range
+	 * @param slots the quad-edge slots of both ranges
+	 * @return the hull edges of the merged range
+	 */
+	private int[] merge(int[] left, int[] right, Slots slots){
+		int ldo = left[0], ldi = left[1], rdi = right[0], rdo = right[1];
+
+		//Find the lower common tangent of the two halves:
+		while(true){
+			if(leftOf(org[rdi], ldi)) ldi = lnext(ldi);
+			else if(rightOf(org[ldi], rdi)) rdi = rprev(rdi);
+			else break;
+		}
+
+		//Zip the halves together from the bottom up:
+		int basel = connect(sym(rdi), ldi, slots);
+		if(org[ldi] == org[ldo]) ldo = sym(basel);
+		if(org[rdi] == org[rdo]) rdo = basel;
+		while(true){
+			int lcand = onext[sym(basel)];
+			if(valid(lcand, basel)){
+				while(incircle(dest(basel), org[basel], dest(lcand), dest(onext[lcand])) > 0){
+					int t = onext[lcand];
+					deleteEdge(lcand, slots);
+					lcand = t;
+				}
+			}
+			int rcand = oprev(basel);
+			if(valid(rcand, basel)){
+				while(incircle(dest(basel), org[basel], dest(rcand), dest(oprev(rcand))) > 0){
+					int t = oprev(rcand);
+					deleteEdge(rcand, slots);
+					rcand = t;
+				}
+			}
+			boolean lvalid = valid(lcand, basel), rvalid = valid(rcand, basel);
+			if(!lvalid && !rvalid) break;						//basel is the upper common tangent
+			if(!lvalid || (rvalid && incircle(dest(lcand), org[lcand], org[rcand], dest(rcand)) > 0))
+				basel = connect(rcand, sym(basel), slots);
+			else
+				basel = connect(sym(basel), sym(lcand), slots);
+		}
+		return new int[]{ldo, rdo};
+	}
+
+	/* Quad-edge navigation */
+
+	private static int rot(int e){ return (e & ~3) | ((e + 1) & 3); }
+	private static int sym(int e){ return e ^ 2; }
+	private static int rotInv(int e){ return (e & ~3) | ((e + 3) & 3); }
+	private int oprev(int e){ return rot(onext[rot(e)]); }
+	private int lnext(int e){ return rot(onext[rotInv(e)]); }
+	private int rprev(int e){ return onext[sym(e)]; }
+	private int dest(int e){ return org[sym(e)]; }
+
+	/* Quad-edge operations */
+
+	private int makeEdge(int a, int b, Slots slots){
+		int q = slots.take();
+		deleted[q] = false;
+		int e = 4*q;
+		onext[e] = e;
+		onext[e+1] = e+3;
+		onext[e+2] = e+2;
+		onext[e+3] = e+1;
+		org[e] = a;
+		org[e+2] = b;
+		return e;
+	}
+
+	private void splice(int a, int b){
+		int alpha = rot(onext[a]), beta = rot(onext[b]);
+		int t = onext[a]; onext[a] = onext[b]; onext[b] = t;
+		t = onext[alpha]; onext[alpha] = onext[beta]; onext[beta] = t;
+	}
+
+	/**
+	 * @return a new edge from dest(a) to org(b), such that a, e and b share a left face
+	 */
+	private int connect(int a, int b, Slots slots){
+		int e = makeEdge(dest(a), org[b], slots);
+		splice(e, lnext(a));
+		splice(sym(e), b);
+		return e;
+	}
+
+	private void deleteEdge(int e, Slots slots){
+		splice(e, oprev(e));
+		splice(sym(e), oprev(sym(e)));
+		deleted[e >> 2] = true;
+		slots.free(e >> 2);
+	}
+
+	/**
+	 * The quad-edge slots owned by a range of sites: the unused slots from next to end,
+	 * and a list of freed slots (linked through org of their unused rotated edge).
+	 */
+	private class Slots {
+		int next, end;
+		int freeHead = -1, freeTail = -1;
+
+		Slots(int begin, int end){
+			this.next = begin;
+			this.end = end;
+		}
+
+		int take(){
+			if(freeHead == -1) return next++;
+			int q = freeHead;
+			freeHead = org[4*q+1];
+			if(freeHead == -1) freeTail = -1;
+			return q;
+		}
+
+		void free(int q){
+			org[4*q+1] = freeHead;
+			freeHead = q;
+			if(freeTail == -1) freeTail = q;
+		}
+
+		/**
+		 * Take over all slots of two adjacent ranges, left ones first.
+		 */
+		void join(Slots left, Slots right){
+			while(left.next < left.end) left.free(left.next++);
+			next = right.next;
+			end = right.end;
+			if(left.freeHead == -1){
+				freeHead = right.freeHead;
+				freeTail = right.freeTail;
+			}else{
+				org[4*left.freeTail+1] = right.freeHead;
+				freeHead = left.freeHead;
+				freeTail = (right.freeHead == -1)? left.freeTail : right.freeTail;
+			}
+		}
+	}
+
+	/**
+	 * Triangulates a range of sites, splitting it over two parallel tasks when large enough.
+	 */
+	private class Triangulate extends RecursiveTask<int[]> {
+		private static final long serialVersionUID = 1L;
+		private int lo, hi;
+		private Slots slots;
+
+		Triangulate(int lo, int hi, Slots slots){
+			this.lo = lo;
+			this.hi = hi;
+			this.slots = slots;
+		}
+
+		@Override
+		protected int[] compute(){
+			if(hi - lo < parallelCutoff) return triangulate(lo, hi, slots);
+			int mid = lo + (hi - lo)/2;
+			Triangulate left = new Triangulate(lo, mid, new Slots(3*lo, 3*mid));
+			Triangulate right = new Triangulate(mid, hi, new Slots(3*mid, 3*hi));
+			left.fork();
+			int[] r = right.compute();
+			int[] l = left.join();
+			slots.join(left.slots, right.slots);
+			return merge(l, r, slots);
+		}
+	}
+
+	/**
+	 * Sorts a part of order on (x, y) of the sites, sorting both halves in parallel.
+	 */
+	private class Sort extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private int[] order, buffer;
+		private int lo, hi;
+
+		Sort(int[] order, int[] buffer, int lo, int hi){
+			this.order = order;
+			this.buffer = buffer;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute(){
+			if(hi - lo < parallelCutoff){
+				mergeSort(order, buffer, lo, hi);
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new Sort(order, buffer, lo, mid), new Sort(order, buffer, mid, hi));
+			merge(order, buffer, lo, mid, hi);
+		}
+	}
+
+	/* Predicates on sorted site indices */
+
+	private double orient(int a, int b, int c){
+		return Geometry2D.orient2d(xs[a], ys[a], xs[b], ys[b], xs[c], ys[c]);
+	}
+
+	private double incircle(int a, int b, int c, int d){
+		return Geometry2D.incircle(xs[a], ys[a], xs[b], ys[b], xs[c], ys[c], xs[d], ys[d]);
+	}
+
+	private boolean leftOf(int site, int e){ return orient(site, org[e], dest(e)) > 0; }
+	private boolean rightOf(int site, int e){ return orient(site, dest(e), org[e]) > 0; }
+	private boolean valid(int e, int basel){ return rightOf(dest(e), basel); }
+
+	/**
+	 * Sort order[lo..hi) on (x, y) of the sites.
+	 */
+	private void mergeSort(int[] order, int[] buffer, int lo, int hi){
+		if(hi - lo < 2) return;
+		int mid = (lo + hi) >>> 1;
+		mergeSort(order, buffer, lo, mid);
+		mergeSort(order, buffer, mid, hi);
+		merge(order, buffer, lo, mid, hi);
+	}
+
+	/**
+	 * Merge the sorted order[lo..mid) and order[mid..hi).
+	 */
+	private void merge(int[] order, int[] buffer, int lo, int mid, int hi){
+		int i = lo, j = mid, k = lo;
+		while(i < mid && j < hi){
+			int a = order[i], b = order[j];
+			if(xs[b] < xs[a] || (xs[b] == xs[a] && ys[b] < ys[a])) buffer[k++] = order[j++];
+			else buffer[k++] = order[i++];
+		}
+		while(i < mid) buffer[k++] = order[i++];
+		while(j < hi) buffer[k++] = order[j++];
+		System.arraycopy(buffer, lo, order, lo, hi - lo);
+	}
+
+	/* Incremental operations */
+
+	@Override
+	public void delaunayPlace(Pnt site, Triangulation trilation) {
+		incremental.delaunayPlace(site, trilation);
+	}
+
+	@Override
+	public boolean delaunayPlaceBoundary(Pnt site, Pnt anchor, Triangulation trilation) {
+		return incremental.delaunayPlaceBoundary(site, anchor, trilation);
+	}
+
+	@Override
+	public void splitBoundary(Set<Pnt> segment, Triangulation trilation) {
+		incremental.splitBoundary(segment, trilation);
+	}
+
+	@Override
+	public void delaunayRemove(Pnt site, Triangulation trilation) {
+		incremental.delaunayRemove(site, trilation);
+	}
+
+}
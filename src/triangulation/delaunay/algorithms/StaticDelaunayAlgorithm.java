@@ -0,0 +1,24 @@
+package triangulation.delaunay.algorithms;
+
+import java.util.List;
+
+import triangulation.Pnt;
+import triangulation.Triangulation;
+
+/**
+ *
+ * An algorithm that triangulates a whole set of sites at once, rather than one site at a time.
+ * The Triangulation uses it when many sites are added to a triangulation that is still empty
+ * (see Triangulation.delaunayPlace(Set<Pnt>)). All other operations are incremental,
+ * as for any DelaunayAlgorithm.
+ *
+ */
+public interface StaticDelaunayAlgorithm extends DelaunayAlgorithm {
+
+	/**
+	 * Replace the initial triangle of trilation by the DT of its vertices and sites.
+	 * @param sites distinct sites, all inside the initial triangle
+	 * @param trilation a Triangulation that holds nothing but its initial triangle
+	 */
+	public void delaunayPlace(List<Pnt> sites, Triangulation trilation);
+}
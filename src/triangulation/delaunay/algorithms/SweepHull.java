@@ -0,0 +1,334 @@
+package triangulation.delaunay.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import triangulation.Geometry2D;
+import triangulation.Pnt;
+import triangulation.Triangle;
+import triangulation.Triangulation;
+
+/**
+ *
+ * Sinclair's sweep-hull (S-hull) algorithm.
+ *
+ * A seed triangle is chosen near the middle of the sites, and the other sites are
+ * sorted on their distance to its circumcenter. In that order, each site lies outside
+ * the convex hull of the sites before it, so it is connected to every hull edge it
+ * can see. The hull is a linked list of vertices; a hash on the angle around the
+ * center finds a visible edge quickly. The result is a triangulation, which one pass
+ * of Lawson edge-flips makes Delaunay.
+ *
+ * No super-triangle is needed. The vertices of the initial triangle of the
+ * Triangulation are just three more (far away) sites; being the furthest, they are
+ * added last. The mesh is kept in int arrays of half-edges: half-edge 3t+i of
+ * triangle t runs from its vertex i to its vertex i+1, and twin[e] is the half-edge
+ * on the other side (-1 on the hull).
+ *
+ * A site that, due to round-off in the sorting, sees no hull edge is inserted
+ * afterwards by Bowyer-Watson, which also handles all incremental operations.
+ *
+ * Reference: D. Sinclair, S-hull: a fast radial sweep-hull routine for Delaunay
+ * triangulation, arXiv:1604.01428, 2016.
+ *
+ */
+public class SweepHull implements StaticDelaunayAlgorithm {
+
+	private final static boolean debug = false;
+
+	private DelaunayAlgorithm incremental = new BowyerWatson();	// Used for everything but the initial triangulation
+
+	// Mesh storage (valid during one delaunayPlace(List, Triangulation) call)
+	private double[] xs, ys;		// Site coordinates
+	private int[] vertex;			// Half-edge -> its origin site
+	private int[] twin;				// Half-edge -> opposite half-edge; -1 on the hull
+	private int numTriangles;
+
+	@Override
+	public void delaunayPlace(List<Pnt> sites, Triangulation trilation) {
+		Triangle initial = trilation.obtainInitialTriangle();
+		int n = sites.size() + 3;
+		Pnt[] pnts = new Pnt[n];
+		for(int i = 0; i < n-3; i++) pnts[i] = sites.get(i);
+		for(int i = 0; i < 3; i++) pnts[n-3+i] = initial.get(i);
+		xs = new double[n];
+		ys = new double[n];
+		for(int i = 0; i < n; i++){
+			xs[i] = pnts[i].coord(0);
+			ys[i] = pnts[i].coord(1);
+		}
+		vertex = new int[3*(2*n)];
+		twin = new int[3*(2*n)];
+		numTriangles = 0;
+
+		List<Pnt> deferred = new ArrayList<Pnt>();
+		sweep(n, sites.size(), pnts, deferred);
+		flipAll();
+		if(debug)System.out.println("(SweepHull) " + numTriangles + " triangles, " + deferred.size() + " sites deferred");
+
+		//Hand the triangles to the triangulation:
+		trilation.removeFromGraph(initial);
+		Triangle[] triangles = new Triangle[numTriangles];
+		for(int t = 0; t < numTriangles; t++){
+			triangles[t] = new Triangle(pnts[vertex[3*t]], pnts[vertex[3*t+1]], pnts[vertex[3*t+2]]);
+			trilation.addToGraph(triangles[t]);
+		}
+		for(int e = 0; e < 3*numTriangles; e++){
+			if(twin[e] > e) trilation.addLinkToGraph(triangles[e/3], triangles[twin[e]/3]);
+		}
+		xs = ys = null;
+		vertex = twin = null;
+
+		for(Pnt site : deferred) incremental.delaunayPlace(site, trilation);
+	}
+
+	/**
+	 * Build a triangulation (not yet Delaunay) of the n sites.
+	 * @param numCentral the first numCentral sites are used to choose the seed
+	 * @param pnts the sites
+	 * @param deferred gets the sites that could not be added
+	 */
+	private void sweep(int n, int numCentral, Pnt[] pnts, List<Pnt> deferred){
+		//Seed: the site closest to the middle of the (central) sites, its nearest
+		//neighbour, and the site giving the smallest circumcircle with those two.
+		double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		int numBox = (numCentral > 0)? numCentral : n;
+		for(int i = 0; i < numBox; i++){
+			minX = Math.min(minX, xs[i]); maxX = Math.max(maxX, xs[i]);
+			minY = Math.min(minY, ys[i]); maxY = Math.max(maxY, ys[i]);
+		}
+		double mx = (minX + maxX)/2, my = (minY + maxY)/2;
+		int i0 = nearest(n, mx, my, -1);
+		int i1 = nearest(n, xs[i0], ys[i0], i0);
+		int i2 = -1;
+		double minRadius = Double.POSITIVE_INFINITY;
+		double[] center = new double[2];
+		for(int i = 0; i < n; i++){
+			if(i == i0 || i == i1) continue;
+			if(Geometry2D.orient2d(xs[i0], ys[i0], xs[i1], ys[i1], xs[i], ys[i]) == 0) continue;
+			Geometry2D.circumcenter(xs[i0], ys[i0], xs[i1], ys[i1], xs[i], ys[i], center);
+			double dx = center[0] - xs[i0], dy = center[1] - ys[i0];
+			if(dx*dx + dy*dy < minRadius){
+				minRadius = dx*dx + dy*dy;
+				i2 = i;
+			}
+		}
+		if(Geometry2D.orient2d(xs[i0], ys[i0], xs[i1], ys[i1], xs[i2], ys[i2]) < 0){
+			int t = i1; i1 = i2; i2 = t;					//Make the seed counterclockwise
+		}
+		Geometry2D.circumcenter(xs[i0], ys[i0], xs[i1], ys[i1], xs[i2], ys[i2], center);
+		double cx = center[0], cy = center[1];
+
+		//Sort the other sites on their distance to the center:
+		double[] dist = new double[n];
+		for(int i = 0; i < n; i++){
+			double dx = xs[i] - cx, dy = ys[i] - cy;
+			dist[i] = dx*dx + dy*dy;
+		}
+		int[] order = new int[n-3];
+		for(int i = 0, k = 0; i < n; i++) if(i != i0 && i != i1 && i != i2) order[k++] = i;
+		mergeSort(order, new int[n-3], dist, 0, n-3);
+
+		//The hull: a ccw linked list of sites, hullTri[v] being the half-edge v->next[v]
+		int[] next = new int[n], prev = new int[n], hullTri = new int[n];
+		int hashSize = Math.max(1, (int) Math.ceil(Math.sqrt(n)));
+		int[] hash = new int[hashSize];
+		Arrays.fill(hash, -1);
+		next[i0] = prev[i2] = i1;
+		next[i1] = prev[i0] = i2;
+		next[i2] = prev[i1] = i0;
+		int t0 = addTriangle(i0, i1, i2, -1, -1, -1);
+		hullTri[i0] = t0;
+		hullTri[i1] = t0 + 1;
+		hullTri[i2] = t0 + 2;
+		hash[hashKey(xs[i0], ys[i0], cx, cy, hashSize)] = i0;
+		hash[hashKey(xs[i1], ys[i1], cx, cy, hashSize)] = i1;
+		hash[hashKey(xs[i2], ys[i2], cx, cy, hashSize)] = i2;
+
+		for(int k = 0; k < n-3; k++){
+			int p = order[k];
+			double px = xs[p], py = ys[p];
+
+			//Find a visible hull edge, starting near p's angle:
+			int start = 0;
+			int key = hashKey(px, py, cx, cy, hashSize);
+			for(int j = 0; j < hashSize; j++){
+				start = hash[(key + j) % hashSize];
+				if(start != -1 && start != next[start]) break;
+			}
+			start = prev[start];
+			int e = start;
+			while(!sees(p, e, next[e])){
+				e = next[e];
+				if(e == start){
+					e = -1;
+					break;
+				}
+			}
+			if(e == -1){
+				deferred.add(pnts[p]);
+				continue;
+			}
+
+			//Connect p to the visible edge, then to the visible edges after and before it:
+			int t = addTriangle(e, p, next[e], -1, -1, hullTri[e]);
+			hullTri[p] = t + 1;								//p->next[e]
+			int first = t;									//e->p
+			int q = next[e];
+			while(sees(p, q, next[q])){
+				t = addTriangle(q, p, next[q], hullTri[p], -1, hullTri[q]);
+				hullTri[p] = t + 1;
+				int r = next[q];
+				next[q] = q;								//Removed from the hull
+				q = r;
+			}
+			if(e == start){
+				while(sees(p, prev[e], e)){
+					int r = prev[e];
+					t = addTriangle(r, p, e, -1, first, hullTri[r]);
+					hullTri[r] = t;							//r->p
+					first = t;
+					next[e] = e;							//Removed from the hull
+					e = r;
+				}
+			}
+			hullTri[e] = first;
+
+			//Update the hull:
+			prev[p] = e;
+			next[e] = p;
+			next[p] = q;
+			prev[q] = p;
+			hash[hashKey(px, py, cx, cy, hashSize)] = p;
+			hash[hashKey(xs[e], ys[e], cx, cy, hashSize)] = e;
+		}
+	}
+
+	/**
+	 * @return true iff site p lies strictly right of the ccw hull edge a->b
+	 */
+	private boolean sees(int p, int a, int b){
+		return Geometry2D.orient2d(xs[a], ys[a], xs[b], ys[b], xs[p], ys[p]) < 0;
+	}
+
+	/**
+	 * Add triangle (a, b, c) and link its half-edges a->b, b->c, c->a to the given twins.
+	 * @return the first half-edge of the new triangle
+	 */
+	private int addTriangle(int a, int b, int c, int ab, int bc, int ca){
+		int e = 3*numTriangles++;
+		vertex[e] = a;
+		vertex[e+1] = b;
+		vertex[e+2] = c;
+		link(e, ab);
+		link(e+1, bc);
+		link(e+2, ca);
+		return e;
+	}
+
+	private void link(int a, int b){
+		twin[a] = b;
+		if(b != -1) twin[b] = a;
+	}
+
+	/**
+	 * Lawson's flip algorithm on all edges, until every edge is locally Delaunay.
+	 */
+	private void flipAll(){
+		int[] stack = new int[3*numTriangles + 16];
+		int size = 0;
+		for(int e = 0; e < 3*numTriangles; e++) if(twin[e] > e) stack[size++] = e;
+		while(size > 0){
+			int a = stack[--size];
+			int b = twin[a];
+			if(b == -1) continue;
+			int a0 = a - a%3, b0 = b - b%3;
+			int al = a0 + (a+1)%3, ar = a0 + (a+2)%3;
+			int bl = b0 + (b+2)%3, br = b0 + (b+1)%3;
+			int p0 = vertex[ar], pr = vertex[a], pl = vertex[al], p1 = vertex[bl];
+			if(Geometry2D.incirclePerturbed(xs[p0], ys[p0], xs[pr], ys[pr], xs[pl], ys[pl], xs[p1], ys[p1]) <= 0)
+				continue;									//Locally Delaunay
+			//Flip: triangle a0 becomes (p1, pl, p0), triangle b0 becomes (p0, pr, p1)
+			vertex[a] = p1;
+			vertex[b] = p0;
+			int hbl = twin[bl], har = twin[ar];
+			link(a, hbl);
+			link(b, har);
+			link(ar, bl);
+			if(size + 4 > stack.length) stack = Arrays.copyOf(stack, 2*stack.length);
+			stack[size++] = a;
+			stack[size++] = al;
+			stack[size++] = b;
+			stack[size++] = br;
+		}
+	}
+
+	private int nearest(int n, double x, double y, int skip){
+		int best = -1;
+		double bestDist = Double.POSITIVE_INFINITY;
+		for(int i = 0; i < n; i++){
+			if(i == skip) continue;
+			double dx = xs[i] - x, dy = ys[i] - y;
+			if(dx*dx + dy*dy < bestDist){
+				bestDist = dx*dx + dy*dy;
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the bucket of the angle of (x,y) around (cx,cy)
+	 */
+	private static int hashKey(double x, double y, double cx, double cy, int hashSize){
+		double dx = x - cx, dy = y - cy;
+		double p = dx / (Math.abs(dx) + Math.abs(dy));		//Pseudo-angle, monotone in the angle
+		double angle = ((dy > 0)? 3 - p : 1 + p) / 4;
+		if(Double.isNaN(angle)) angle = 0;
+		return ((int) Math.floor(angle * hashSize)) % hashSize;
+	}
+
+	/**
+	 * Sort order[lo..hi) on key.
+	 */
+	private static void mergeSort(int[] order, int[] buffer, double[] key, int lo, int hi){
+		if(hi - lo < 2) return;
+		int mid = (lo + hi) >>> 1;
+		mergeSort(order, buffer, key, lo, mid);
+		mergeSort(order, buffer, key, mid, hi);
+		int i = lo, j = mid, k = lo;
+		while(i < mid && j < hi){
+			if(key[order[j]] < key[order[i]]) buffer[k++] = order[j++];
+			else buffer[k++] = order[i++];
+		}
+		while(i < mid) buffer[k++] = order[i++];
+		while(j < hi) buffer[k++] = order[j++];
+		System.arraycopy(buffer, lo, order, lo, hi - lo);
+	}
+
+	/* Incremental operations */
+
+	@Override
+	public void delaunayPlace(Pnt site, Triangulation trilation) {
+		incremental.delaunayPlace(site, trilation);
+	}
+
+	@Override
+	public boolean delaunayPlaceBoundary(Pnt site, Pnt anchor, Triangulation trilation) {
+		return incremental.delaunayPlaceBoundary(site, anchor, trilation);
+	}
+
+	@Override
+	public void splitBoundary(Set<Pnt> segment, Triangulation trilation) {
+		incremental.splitBoundary(segment, trilation);
+	}
+
+	@Override
+	public void delaunayRemove(Pnt site, Triangulation trilation) {
+		incremental.delaunayRemove(site, trilation);
+	}
+
+}
@@ -1,15 +1,23 @@
 package triangulation.delaunay.refineAlgorithms;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.Set;
 
 import triangulation.ArraySet;
+import triangulation.Geometry2D;
+import triangulation.MeshListener;
 import triangulation.Pnt;
 import triangulation.Triangulation;
 import triangulation.Triangle;
 import triangulation.delaunay.DelaunayUtils;
+import triangulation.delaunay.SizingFunction;
+import triangulation.delaunay.TriangleQuality;
+import triangulation.delaunay.UniformSize;
 import triangulation.delaunay.algorithms.Lawson;
 
 public class Chew implements DelaunayRefineAlgorithm{
@@ -37,9 +45,9 @@ public class Chew implements DelaunayRefineAlgorithm{
 		}
 		
 		// Does the triangle itself contain an encroached segment?
-		for(Pnt oppositeVertex: triangle) {
-			Set<Pnt> facet = triangle.facetOpposite(oppositeVertex);
-			if(trilation.isPSLG(facet)) {
+		for(int i = 0; i < 3; i++) {
+			if(trilation.isPSLG(triangle, i)) {
+				Set<Pnt> facet = triangle.facetOpposite(triangle.get(i));
 				for(Set<Pnt> ccLine: ccLines) {
 					if(DelaunayUtils.intersect(ccLine, facet,false)) {
 						return facet;
@@ -56,10 +64,9 @@ public class Chew implements DelaunayRefineAlgorithm{
 			
 			for(Pnt samePoint: union) {
 				// facet is visible from triangle
-				Set<Pnt> facet = neighbour.facetOpposite(samePoint);
-				
 				// Check if it's an encroaching segment
-				if(trilation.isPSLG(facet)) {
+				if(trilation.isPSLG(neighbour, neighbour.indexOf(samePoint))) {
+					Set<Pnt> facet = neighbour.facetOpposite(samePoint);
 					for(Set<Pnt> ccLine: ccLines) {
 						if(DelaunayUtils.intersect(ccLine, facet,false)) {
 							return facet;
@@ -77,99 +84,151 @@ public class Chew implements DelaunayRefineAlgorithm{
 		return blockingSegment;
 	}
 	
+	/**
+	 * Return the vertices in the diametral circle of segment that may be visible from its midpoint.
+	 * Grows from the triangle at the midpoint over the edges that come within the circle, without
+	 * crossing the PSLG (except segment itself): the triangles along the line from the midpoint
+	 * to a visible vertex are all reached, so only the triangles near the circle are visited.
+	 */
+	private static List<Pnt> pointsInDiametralCircle(
+			Triangulation trilation,
+			Pnt[] segment,
+			Pnt midpoint) {
+		
+		double x = midpoint.coord(0), y = midpoint.coord(1);
+		double radius = Math.hypot(segment[0].coord(0) - x, segment[0].coord(1) - y);
+		List<Pnt> points = new ArrayList<Pnt>();
+		Set<Pnt> seen = new HashSet<Pnt>();
+		Set<Triangle> visited = new HashSet<Triangle>();
+		Queue<Triangle> toVisit = new LinkedList<Triangle>();
+		Triangle start = trilation.locate(midpoint);
+		toVisit.add(start);
+		visited.add(start);
+		while(!toVisit.isEmpty()) {
+			Triangle triangle = toVisit.poll();
+			for(int i = 0; i < 3; i++) {
+				Pnt vertex = triangle.get(i);
+				if(seen.add(vertex) && vertex.vsDiamcircle(segment) <= 0) points.add(vertex);
+				
+				Pnt u = triangle.get((i+1)%3), v = triangle.get((i+2)%3);
+				boolean isSegment = (u.equals(segment[0]) && v.equals(segment[1])) 
+						|| (u.equals(segment[1]) && v.equals(segment[0]));
+				if(trilation.isPSLG(triangle, i) && !isSegment) continue;
+				if(Geometry2D.segmentDistance(x, y, u.coord(0), u.coord(1), v.coord(0), v.coord(1)) > radius) continue;
+				Triangle neighbour = trilation.neighborOpposite(vertex, triangle);
+				if(neighbour != null && visited.add(neighbour)) toVisit.add(neighbour);
+			}
+		}
+		return points;
+	}
+	
 	@Override
 	public void refine(Triangulation trilation, double minAngle, double maxArea) {
+		refine(trilation, minAngle, new UniformSize(maxArea));
+	}
+
+	/**
+	 * Works in passes. The first pass treats the bad triangles of the whole mesh; each
+	 * next pass treats the bad triangles among those created or flipped during the
+	 * pass before (see Triangulation.addMeshListener), so the mesh is not
+	 * scanned again. Refinement stops when a pass leaves no fewer bad triangles.
+	 */
+	@Override
+	public void refine(Triangulation trilation, double minAngle, SizingFunction sizing) {
 		System.out.println("Chew is called!");
-		Queue<Triangle> badTriangles = DelaunayUtils.obtainBadTriangles(
-				trilation, minAngle, maxArea);
+		TriangleQuality quality = new TriangleQuality(trilation, minAngle, sizing);
+		Queue<Triangle> badTriangles = DelaunayUtils.obtainBadTriangles(trilation, quality);
 		int numBadTriangles = badTriangles.size();
-
-		while(!badTriangles.isEmpty()) {
-			if(debug) System.out.println("Chew: " + badTriangles.size() + " bad triangles left");
+		Queue<Triangle> nextPass = new LinkedList<Triangle>();
+		Set<Triangle> inNextPass = new HashSet<Triangle>();
+		List<Triangle> created = new ArrayList<Triangle>(); //Triangles created or flipped by the last step
+		MeshListener listener = DelaunayUtils.collectCreatedTriangles(created);
+		trilation.addMeshListener(listener);
+		try {
+			while(!badTriangles.isEmpty()) {
+				if(debug) System.out.println("Chew: " + badTriangles.size() + " bad triangles left");
 			
-			Triangle badTriangle = badTriangles.poll();
-			if(!trilation.contains(badTriangle))
-				continue;
+				Triangle badTriangle = badTriangles.poll();
+				if(!trilation.contains(badTriangle) || !quality.isBad(badTriangle))
+					continue;
 			
-			Pnt circumCenter = badTriangle.getCircumcenter();
+				Pnt circumCenter = badTriangle.getCircumcenter();
 			
-			// Print info
-			if(debug) {
-				Triangle.moreInfo=true;
-				System.out.println("Chew: " + badTriangle + " is a bad triangle");
-				Triangle.moreInfo=false;
-				System.out.println("Chew: It's circumcenter is " + circumCenter);
-			}
+				// Print info
+				if(debug) {
+					Triangle.moreInfo=true;
+					System.out.println("Chew: " + badTriangle + " is a bad triangle");
+					Triangle.moreInfo=false;
+					System.out.println("Chew: It's circumcenter is " + circumCenter);
+				}
 			
-			Set<Pnt> blockingSegment = blockingSegmentOrNull(
-					trilation, badTriangle, circumCenter);
-			if(blockingSegment == null) {
-				if(circumCenter.vsCircumcircle(trilation.obtainInitialTriangle().toArray(new Pnt[0])) == -1){
-					if(debug)System.out.println("Chew: We can safely insert the circumcenter");
-					if(!trilation.delaunayPlace(circumCenter)) {
-						if(debug)System.out.println("Chew: Failed to insert circumcenter at " + circumCenter);
+				Set<Pnt> blockingSegment = blockingSegmentOrNull(
+						trilation, badTriangle, circumCenter);
+				if(blockingSegment == null) {
+					if(trilation.obtainInitialTriangle().vsCircumcircle(circumCenter) == -1){
+						if(debug)System.out.println("Chew: We can safely insert the circumcenter");
+						if(!trilation.delaunayPlace(circumCenter)) {
+							if(debug)System.out.println("Chew: Failed to insert circumcenter at " + circumCenter);
+						}
+					} else {
+						if(debug)System.out.println("Chew: I'm not going to insert a circumcenter at: " + circumCenter);
 					}
 				} else {
-					if(debug)System.out.println("Chew: I'm not going to insert a circumcenter at: " + circumCenter);
-				}
-			} else {
-				if(debug)System.out.println("Chew: A circumcentre would encroach: " + blockingSegment);
-				Queue<Pnt> toRemove = new LinkedList<Pnt>();
+					if(debug)System.out.println("Chew: A circumcentre would encroach: " + blockingSegment);
+					Queue<Pnt> toRemove = new LinkedList<Pnt>();
 				
-				// We need to remove circumcenters from the diameter circle of the segment.
-				Pnt[] blockingSegmentArray = blockingSegment.toArray(new Pnt[0]);
-				Pnt midpoint = blockingSegmentArray[0].midPoint(blockingSegmentArray[1]);
-				for(Pnt point: trilation.obtainAllPoints()) {
-					Set<Pnt> midPointFacet = new ArraySet<Pnt>(Arrays.asList(point, midpoint));
-					if(point.vsDiamcircle(blockingSegmentArray) <= 0) {
-						boolean isPSLG = false;
-						boolean isVisible = true;
-						for(Set<Pnt> segment: trilation.obtainBoundary()) {
-							// We may not remove points that are part of the boundary
-							if(segment.contains(point)) {
-								isPSLG = true;
-								break;
-							}
-							// We may only remove points that are visible from the midpoint.
-							if(DelaunayUtils.intersect(segment, midPointFacet,false)) {
-								isVisible = false;
-								break;
-							}
-						}
-						if(!isPSLG && isVisible)
-							toRemove.add(point);
+					// We need to remove circumcenters from the diameter circle of the segment.
+					Pnt[] blockingSegmentArray = blockingSegment.toArray(new Pnt[0]);
+					Pnt midpoint = blockingSegmentArray[0].midPoint(blockingSegmentArray[1]);
+					for(Pnt point: pointsInDiametralCircle(trilation, blockingSegmentArray, midpoint)) {
+						// We may not remove points that are part of the boundary
+						if(trilation.isBoundaryVertex(point)) continue;
+						// We may only remove points that are visible from the midpoint:
+						// walk through the triangles between them instead of testing every segment.
+						if(DelaunayUtils.crossesPSLG(point, midpoint, trilation)) continue;
+						toRemove.add(point);
 					}
-				}
 				
-				// Execute toRemove list
-				if(debug)System.out.println("Chew: " + toRemove.size() + 
-						" elements need to be removed: " + toRemove);
-				for(Pnt site: toRemove) {
-					// FIXME: Illegal argument exception??
-					trilation.delaunayRemove(site);
-				}
+					// Execute toRemove list
+					if(debug)System.out.println("Chew: " + toRemove.size() + 
+							" elements need to be removed: " + toRemove);
+					for(Pnt site: toRemove) {
+						// FIXME: Illegal argument exception??
+						trilation.delaunayRemove(site);
+					}
 				
-				// Split the segment
-				if(debug)System.out.println("Chew: The segment is splitted");
-				assert(trilation.isPSLG(blockingSegment));
-				trilation.splitBoundary(blockingSegment);
-			}
+					// Split the segment
+					if(debug)System.out.println("Chew: The segment is splitted");
+					assert(trilation.isPSLG(blockingSegment));
+					trilation.splitBoundary(blockingSegment);
+					// The split need not change badTriangle: look at it again
+					created.add(badTriangle);
+				}
 			
-			if(badTriangles.isEmpty()) {
-				badTriangles = DelaunayUtils.obtainBadTriangles(
-						trilation, minAngle, maxArea);
-				if(debug)System.out.println("Chew: New bad triangles " + badTriangles.size());
+				for(Triangle triangle: created)
+					if(quality.isBad(triangle) && inNextPass.add(triangle)) nextPass.add(triangle);
+				created.clear();
+			
+				if(badTriangles.isEmpty()) {
+					for(Triangle triangle: nextPass)
+						if(trilation.contains(triangle) && quality.isBad(triangle)) badTriangles.add(triangle);
+					nextPass.clear();
+					inNextPass.clear();
+					if(debug)System.out.println("Chew: New bad triangles " + badTriangles.size());
 				
-				if(numBadTriangles <= badTriangles.size()) {
-					if(debug) System.out.println("Chew: Escaped from infinite loop: " + 
-							badTriangles.size() + " instead of " + numBadTriangles + 
-							" triangles left");
-					return;
-				} else {
-					numBadTriangles = badTriangles.size();
+					if(numBadTriangles <= badTriangles.size()) {
+						if(debug) System.out.println("Chew: Escaped from infinite loop: " + 
+								badTriangles.size() + " instead of " + numBadTriangles + 
+								" triangles left");
+						return;
+					} else {
+						numBadTriangles = badTriangles.size();
+					}
 				}
+				System.out.println("Num baddies is " + badTriangles.size());
 			}
-			System.out.println("Num baddies is " + badTriangles.size());
+		} finally {
+			trilation.removeMeshListener(listener);
 		}
 		System.out.println("Chew Finished with " + badTriangles.size() + " bad triangles");
 	}
@@ -1,6 +1,7 @@
 package triangulation.delaunay.refineAlgorithms;
 
 import triangulation.Triangulation;
+import triangulation.delaunay.SizingFunction;
 
 /**
  * 
@@ -18,4 +19,10 @@ public interface DelaunayRefineAlgorithm {
 	 */
 	public void refine(Triangulation trilation, double minangle, double maxArea);
 	
+	/**
+	 * Assure that in each triangle each corner is bigger than minangle.
+	 * Assure that each triangle has an area below the value of sizing at its centroid.
+	 */
+	public void refine(Triangulation trilation, double minangle, SizingFunction sizing);
+	
 }
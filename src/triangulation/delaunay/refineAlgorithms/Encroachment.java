@@ -0,0 +1,49 @@
+package triangulation.delaunay.refineAlgorithms;
+
+import java.util.Iterator;
+import java.util.Set;
+
+import triangulation.Pnt;
+
+/**
+ * The available regions around a segment in which a new point encroaches the segment,
+ * so that the segment is split instead of inserting the point.
+ *
+ * DiametralCircle: the circle with the segment as diameter (Ruppert).
+ * DiametralLens: the points that see the segment under an angle greater than 120 degrees,
+ * which is the lens for a 30 degree bound (Shewchuk). The lens lies inside the circle, so
+ * fewer segments are split; the bound on the angles still holds up to about 20 degrees.
+ */
+public enum Encroachment {
+	DiametralCircle("Diametral circle"),
+	DiametralLens("Diametral lens");
+
+	private String name;
+
+	private Encroachment(String name){
+		this.name = name;
+	}
+
+	public String toString(){
+		return name;
+	}
+
+	/**
+	 * @param point a point strictly inside the diametral circle of segment
+	 * (see Triangulation.obtainEncroachedSegments)
+	 * @param segment a segment of the PSLG
+	 * @return true iff point encroaches segment
+	 */
+	public boolean encroaches(Pnt point, Set<Pnt> segment){
+		if(this == DiametralLens){
+			Iterator<Pnt> it = segment.iterator();
+			Pnt a = it.next(), b = it.next();
+			double ax = a.coord(0) - point.coord(0), ay = a.coord(1) - point.coord(1);
+			double bx = b.coord(0) - point.coord(0), by = b.coord(1) - point.coord(1);
+			double dot = ax*bx + ay*by;
+			//cos(angle apb) < -1/2, without square roots:
+			return dot < 0 && 4*dot*dot > (ax*ax + ay*ay)*(bx*bx + by*by);
+		}
+		return true;
+	}
+}
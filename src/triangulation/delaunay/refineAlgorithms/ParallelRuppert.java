@@ -0,0 +1,238 @@
+package triangulation.delaunay.refineAlgorithms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import triangulation.MeshListener;
+import triangulation.Pnt;
+import triangulation.Triangle;
+import triangulation.Triangulation;
+import triangulation.delaunay.DelaunayUtils;
+import triangulation.delaunay.SizingFunction;
+import triangulation.delaunay.TriangleQuality;
+import triangulation.delaunay.UniformSize;
+
+/**
+ * Ruppert's algorithm with the bad triangles refined by several threads at once.
+ *
+ * Refinement works in rounds. Each round, the bad triangles are divided into regions by
+ * coordinate bisection of their circumcenters, so each region has about as many. Then the
+ * regions are refined concurrently on a thread pool, each worst first, using the concurrent
+ * insertion mode of the Triangulation (see Triangulation.enableConcurrentInsertion): a thread
+ * splits the segments that a circumcenter encroaches, or else inserts the circumcenter. Both
+ * claim the triangles they change and the triangles around them, so where two of them near
+ * the border of a region meet, the conflict is detected and one of them starts over. Nothing
+ * is done for a triangle that is no longer there. The next round looks at the triangles that
+ * the round created, and at the triangles for which a segment was split.
+ *
+ * A round with too little work to share (e.g. the first rounds on a coarse mesh) is done by
+ * the calling thread alone. When no bad triangles are left, Ruppert scans the whole mesh
+ * once more and treats what is left: the mesh meets the same criteria as after Ruppert.refine.
+ *
+ * Concurrent insertion needs a ConcurrentDelaunayAlgorithm (Bowyer-Watson), and Steiner
+ * points whose encroachment can be tested without walking the mesh: circumcenters and
+ * diametral circles. Otherwise, or with a single thread, this is just Ruppert.
+ *
+ * Not offered in RefineAlgorithms: it has not yet been shown to be faster than Ruppert
+ * (timeMeasurer measures it with 1, 2, 4, ... threads).
+ */
+public class ParallelRuppert implements DelaunayRefineAlgorithm{
+
+	private static final boolean debug = false;
+	private static final int minPerThread = 64; //Rounds with less work per thread are done by one thread
+
+	private final int threads;
+	private final SteinerPoints steinerPoints;
+	private final Encroachment encroachment;
+
+	/**
+	 * Uses one thread per processor.
+	 */
+	public ParallelRuppert(){
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param threads the number of threads to refine with
+	 */
+	public ParallelRuppert(int threads){
+		this(threads, SteinerPoints.Circumcenter, Encroachment.DiametralCircle);
+	}
+
+	/**
+	 * @param threads the number of threads to refine with
+	 * @param steinerPoints the point to insert for a bad triangle
+	 * @param encroachment when that point encroaches a segment
+	 */
+	public ParallelRuppert(int threads, SteinerPoints steinerPoints, Encroachment encroachment){
+		this.threads = threads;
+		this.steinerPoints = steinerPoints;
+		this.encroachment = encroachment;
+	}
+
+	@Override
+	public void refine(Triangulation trilation, double minAngle, double maxArea) {
+		refine(trilation, minAngle, new UniformSize(maxArea));
+	}
+
+	/**
+	 * The sizing function is called by one thread at a time.
+	 */
+	@Override
+	public void refine(Triangulation trilation, double minAngle, SizingFunction sizing) {
+		Ruppert ruppert = new Ruppert(steinerPoints, encroachment);
+		if(threads > 1 && trilation.supportsConcurrentInsertion()
+				&& steinerPoints == SteinerPoints.Circumcenter && encroachment == Encroachment.DiametralCircle){
+			TriangleQuality quality = new TriangleQuality(trilation, minAngle, sizing);
+			List<Triangle> created = new ArrayList<Triangle>(); //Triangles created by the last round
+			MeshListener listener = DelaunayUtils.collectCreatedTriangles(created);
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			trilation.addMeshListener(listener);
+			try{
+				List<Triangle> candidates = new ArrayList<Triangle>(DelaunayUtils.obtainBadTriangles(trilation, quality));
+				while(!candidates.isEmpty()){
+					if(debug)System.out.println("(ParallelRuppert) Round with " + candidates.size() + " candidates");
+					List<Step> steps = new ArrayList<Step>();
+					for(Triangle triangle : candidates){
+						if(!trilation.contains(triangle) || !quality.isBad(triangle)) continue;
+						steps.add(new Step(triangle, steinerPoints.place(triangle, minAngle), quality.priority(triangle)));
+					}
+					List<Triangle> retry = Collections.synchronizedList(new ArrayList<Triangle>());
+
+					if(steps.size() >= minPerThread*threads){
+						trilation.enableConcurrentInsertion();
+						try{
+							refineConcurrently(trilation, pool, steps, retry);
+						}finally{
+							trilation.disableConcurrentInsertion();
+						}
+					}else{
+						refineRegion(trilation, steps, retry);
+					}
+
+					candidates = new ArrayList<Triangle>(retry);
+					for(Triangle triangle : created)
+						if(quality.isBad(triangle)) candidates.add(triangle);
+					created.clear();
+				}
+			}finally{
+				trilation.removeMeshListener(listener);
+				pool.shutdown();
+			}
+		}
+		ruppert.refine(trilation, minAngle, sizing);
+	}
+
+	/**
+	 * Divide the steps into regions, one per thread, and refine each region on the pool.
+	 */
+	private void refineConcurrently(final Triangulation trilation, ExecutorService pool, List<Step> steps,
+			final List<Triangle> retry){
+		List<List<Step>> regions = new ArrayList<List<Step>>();
+		bisect(steps, threads, regions);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for(final List<Step> region : regions){
+			futures.add(pool.submit(new Runnable(){
+				@Override
+				public void run(){
+					refineRegion(trilation, region, retry);
+				}
+			}));
+		}
+		for(Future<?> future : futures){
+			try{
+				future.get();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while refining", e);
+			}catch(ExecutionException e){
+				if(e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Treat the triangles of a region, worst first, like Ruppert does: split the segments that
+	 * the circumcenter encroaches, or else insert the circumcenter. A triangle that is gone is
+	 * skipped. Called by several threads at once in concurrent insertion mode.
+	 * @param retry gets the triangles to look at again because a segment was split for them
+	 */
+	private static void refineRegion(Triangulation trilation, List<Step> region, List<Triangle> retry){
+		Triangle initialTriangle = trilation.obtainInitialTriangle();
+		Collections.sort(region);
+		for(Step step : region){
+			if(!trilation.contains(step.triangle)) continue;
+			boolean isEncroaching = false, isSplit = false;
+			for(Set<Pnt> segment : trilation.obtainEncroachedSegments(step.center)){
+				isEncroaching = true;
+				if(Ruppert.isSplittable(segment) && trilation.splitBoundary(segment, step.triangle))
+					isSplit = true;
+			}
+			if(isEncroaching){
+				if(isSplit) retry.add(step.triangle);
+			}else if(initialTriangle.vsCircumcircle(step.center) == -1){
+				trilation.delaunayPlace(step.center, step.triangle);
+			}
+		}
+	}
+
+	/**
+	 * Recursive coordinate bisection: cut the bounding box of steps across its longer side,
+	 * at the median, until there are parts regions.
+	 * @param regions gets the regions
+	 */
+	private static void bisect(List<Step> steps, int parts, List<List<Step>> regions){
+		if(parts <= 1 || steps.size() < 2){
+			regions.add(steps);
+			return;
+		}
+		double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for(Step step : steps){
+			minX = Math.min(minX, step.center.coord(0));
+			maxX = Math.max(maxX, step.center.coord(0));
+			minY = Math.min(minY, step.center.coord(1));
+			maxY = Math.max(maxY, step.center.coord(1));
+		}
+		final int axis = (maxX - minX >= maxY - minY)? 0 : 1;
+		Collections.sort(steps, new Comparator<Step>(){
+			@Override
+			public int compare(Step s, Step t){
+				return Double.compare(s.center.coord(axis), t.center.coord(axis));
+			}
+		});
+		int lower = parts/2;
+		int cut = (int) ((long) steps.size() * lower / parts);
+		bisect(new ArrayList<Step>(steps.subList(0, cut)), lower, regions);
+		bisect(new ArrayList<Step>(steps.subList(cut, steps.size())), parts - lower, regions);
+	}
+
+	/**
+	 * A bad triangle, with the circumcenter to insert for it.
+	 */
+	private static class Step implements Comparable<Step>{
+		private final Triangle triangle;
+		private final Pnt center;
+		private final double priority;
+
+		Step(Triangle triangle, Pnt center, double priority){
+			this.triangle = triangle;
+			this.center = center;
+			this.priority = priority;
+		}
+
+		@Override
+		public int compareTo(Step other){
+			return Double.compare(other.priority, priority); //Worst first
+		}
+	}
+
+}
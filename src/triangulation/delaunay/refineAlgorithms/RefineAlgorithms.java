@@ -3,6 +3,8 @@ package triangulation.delaunay.refineAlgorithms;
 public enum RefineAlgorithms {
 	Null("<<RefineAlgorithms>>"),
 	Ruppert("Ruppert"),
+	RuppertOffCenter("Ruppert (off-centers)"),
+	RuppertOffCenterLens("Ruppert (off-centers, lenses)"),
 	Chew("Chew");
 	
 	private String name;
@@ -19,6 +21,12 @@ public enum RefineAlgorithms {
 		if(this == Ruppert){
 			return new Ruppert();			
 		}
+		if(this == RuppertOffCenter){
+			return new Ruppert(SteinerPoints.OffCenter, Encroachment.DiametralCircle);
+		}
+		if(this == RuppertOffCenterLens){
+			return new Ruppert(SteinerPoints.OffCenter, Encroachment.DiametralLens);
+		}
 		if(this == Chew){
 			return new Chew();				
 		}
@@ -1,66 +1,114 @@
 package triangulation.delaunay.refineAlgorithms;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
 
+import triangulation.MeshListener;
 import triangulation.Pnt;
 import triangulation.Triangle;
 import triangulation.Triangulation;
 import triangulation.delaunay.DelaunayUtils;
+import triangulation.delaunay.SizingFunction;
+import triangulation.delaunay.TriangleQuality;
+import triangulation.delaunay.UniformSize;
 
 public class Ruppert implements DelaunayRefineAlgorithm{
 	
 	private static final boolean debug = false;
+	
+	private final SteinerPoints steinerPoints;
+	private final Encroachment encroachment;
+	
+	/**
+	 * Inserts circumcenters and splits the segments whose diametral circle they encroach.
+	 */
+	public Ruppert(){
+		this(SteinerPoints.Circumcenter, Encroachment.DiametralCircle);
+	}
+	
+	/**
+	 * @param steinerPoints the point to insert for a bad triangle
+	 * @param encroachment when that point encroaches a segment
+	 */
+	public Ruppert(SteinerPoints steinerPoints, Encroachment encroachment){
+		this.steinerPoints = steinerPoints;
+		this.encroachment = encroachment;
+	}
 
+	/**
+	 * The bad triangles are found by one scan of the mesh. After that, only the triangles
+	 * created or flipped by each insertion or split are tested (see
+	 * Triangulation.addMeshListener).
+	 * 
+	 * Encroached segments are split first. Bad triangles are treated worst first (see
+	 * TriangleQuality.priority), which needs fewer Steiner points than treating them in
+	 * the order found. Queue entries are not removed when their triangle dies or is
+	 * flipped, or when their segment is split: such entries are skipped when they come up.
+	 * 
+	 * The point inserted for a bad triangle and the test for encroachment are chosen at
+	 * construction (see SteinerPoints and Encroachment).
+	 */
 	@Override
 	public void refine(Triangulation trilation, double minAngle, double maxArea) {
-		if(debug)System.out.println("(Ruppert) Ruppert algorithm begins. Criterions specified: minAngle = " + minAngle + ",\t maxArea = " + maxArea);
+		refine(trilation, minAngle, new UniformSize(maxArea));
+	}
+
+	@Override
+	public void refine(Triangulation trilation, double minAngle, SizingFunction sizing) {
+		if(debug)System.out.println("(Ruppert) Ruppert algorithm begins. Criterions specified: minAngle = " + minAngle + ",\t sizing = " + sizing);
 		
+		TriangleQuality quality = new TriangleQuality(trilation, minAngle, sizing);
 		Queue<Set<Pnt>> toDoList_segment = new LinkedList<Set<Pnt>>();
-		Queue<Triangle> toDoList_triangle = new LinkedList<Triangle>();
-		Set<Triangle> marked_tr = new HashSet<Triangle>();
-		Set<Set<Pnt>> marked_fc = new HashSet<Set<Pnt>>();
+		PriorityQueue<BadTriangle> toDoList_triangle = new PriorityQueue<BadTriangle>();
+		for(Triangle triangle : DelaunayUtils.obtainBadTriangles(trilation, quality))
+			toDoList_triangle.add(new BadTriangle(triangle, quality.priority(triangle)));
+		List<Triangle> created = new ArrayList<Triangle>(); //Triangles created or flipped by the last step
+		if(debug)System.out.println("(Ruppert) toDoList_triangle.size() = " + toDoList_triangle.size());
 		
-		while(true){ //While there are troublesome triangles:
-			//Create a troublesome list:
-			Queue<Triangle> toDoListTriangles = DelaunayUtils.obtainBadTriangles(trilation,minAngle,maxArea);
-			toDoList_triangle.addAll(toDoListTriangles);
-			if(debug)System.out.println("(Ruppert) toDoList_triangle.size() = " + toDoList_triangle.size());
-			if(toDoList_triangle.isEmpty()) break; //We are done! Algorithm terminates.
-			while(!toDoList_triangle.isEmpty() || !toDoList_segment.isEmpty()){ //While there are still items in our current list
+		Triangle encroacher = null; //The last triangle whose circumcenter encroached a segment
+		MeshListener listener = DelaunayUtils.collectCreatedTriangles(created);
+		trilation.addMeshListener(listener);
+		try{
+			while(!toDoList_triangle.isEmpty() || !toDoList_segment.isEmpty()){ //While there are troublesome triangles or segments
 				if(toDoList_segment.isEmpty()){ //Troublesome triangle should be chosen
-					Triangle cur_triangle = toDoList_triangle.remove();
-					/*unmark*/marked_tr.remove(cur_triangle);
-					if(!trilation.contains(cur_triangle)) continue; //The triangle was removed in a previous process. Do not process it.
+					BadTriangle entry = toDoList_triangle.remove();
+					Triangle cur_triangle = entry.triangle;
+					if(!entry.isCurrent(trilation)) continue; //The triangle was removed or flipped in a previous process. Do not process it.
+					if(!quality.isBad(cur_triangle)) continue;
 					
 					//Check if the triangle's circumcenter is encroaching any segment
 					//I.e., is the circumcenter in the diametrical circle of any segment?
-					Pnt center = cur_triangle.getCircumcenter();
-					Set<Set<Pnt>> boundaryList = trilation.obtainBoundary(); //unmodifiable list of boundary segments
+					List<Set<Pnt>> encroached = new ArrayList<Set<Pnt>>();
+					Pnt center = steinerPoint(cur_triangle, minAngle, trilation, encroached);
 					Set<Pnt> encroachedSegment = null;
-					for(Set<Pnt> segment : boundaryList){ //for each PSLG...
-						if(center.vsDiamcircle(segment.toArray(new Pnt[0])) == -1){
-							//We found AN encroached segment.
-							encroachedSegment = segment;
-							//Segment must be split
-							if(!marked_fc.contains(encroachedSegment)){
-								toDoList_segment.add(encroachedSegment);
-								marked_fc.add(encroachedSegment);
-							}
+					boolean isSplit = false;
+					for(Set<Pnt> segment : encroached){
+						//We found AN encroached segment.
+						encroachedSegment = segment;
+						//Segment must be split
+						if(isSplittable(segment)){
+							toDoList_segment.add(encroachedSegment);
+							isSplit = true;
 						}
 					}
 					//If there was no encroached segment, insert the circumcenter of the triangle.
-					if(encroachedSegment == null){
+					//Otherwise, look at the triangle again after the splits (which need not change it).
+					//If the segments are too short to split (near small input angles), give up on it.
+					if(encroachedSegment != null){
+						if(isSplit){
+							encroacher = cur_triangle;
+							toDoList_triangle.add(entry);
+						}
+					}else{
 						//TODO: Only add the circumcenter if it is reasonably nearby
-						if(center.vsCircumcircle(trilation.obtainInitialTriangle().toArray(new Pnt[0])) == -1){
-							Triangle t = trilation.locate(center);
-//							if(t.containsAny(trilation.obtainInitialTriangle())){
-//								System.out.println("(Ruppert) Point being added outside domain: don't allow it.");
-//							}else{
-								trilation.delaunayPlace(center);									
-//							}						
+						if(trilation.obtainInitialTriangle().vsCircumcircle(center) == -1){
+							trilation.hintLocate(cur_triangle); //The queue jumps around: walk from nearby
+							trilation.delaunayPlace(center);
 						}else{
 							//We have a very troublesome triangle, with two very small minAngles.
 							//Kevin's alternative to Ruppert: remove the point with the big angle.
@@ -72,14 +120,94 @@ public class Ruppert implements DelaunayRefineAlgorithm{
 					
 				}else{ //Troublesome segment should be treated
 					Set<Pnt> segment = toDoList_segment.remove();
-					/*unmark*/marked_fc.remove(segment);
+					if(!trilation.isPSLG(segment)) continue; //Split already
+					if(encroacher != null) trilation.hintLocate(encroacher); //It is next to the segment
 					trilation.splitBoundary(segment);
-					//break outerLoop;
 				}
+				
+				//Only the triangles that changed can have become bad:
+				for(Triangle triangle : created)
+					if(quality.isBad(triangle)) toDoList_triangle.add(new BadTriangle(triangle, quality.priority(triangle)));
+				created.clear();
 			}
-			if(debug) break; //This will terminate after 1 iteration, allowing a step-by-step visualisation.
+		}finally{
+			trilation.removeMeshListener(listener);
 		}
 		if(debug)System.out.println("(Ruppert) Ruppert terminates.");
 	}
 
+	/**
+	 * Chooses the point to insert for triangle (see SteinerPoints), and finds the segments
+	 * it encroaches (see Encroachment), through the segment index.
+	 * 
+	 * With circumcenters and diametral circles, a circumcenter beyond a segment
+	 * encroaches it. Off-centers and lenses lose that: a point that is not encroaching
+	 * could still lie beyond a segment, where inserting it would not remove triangle.
+	 * For those, the first segment between triangle and the point counts as encroached.
+	 * 
+	 * @param encroached gets the encroached segments
+	 * @return the point to insert if encroached stays empty
+	 */
+	Pnt steinerPoint(Triangle triangle, double minAngle, Triangulation trilation, List<Set<Pnt>> encroached){
+		Pnt point = steinerPoints.place(triangle, minAngle);
+		for(Set<Pnt> segment : trilation.obtainEncroachedSegments(point))
+			if(encroachment.encroaches(point, segment)) encroached.add(segment);
+		if(!encroached.isEmpty() || (steinerPoints == SteinerPoints.Circumcenter && encroachment == Encroachment.DiametralCircle))
+			return point;
+		//The point lies in the circumcircle, so if it is outside triangle, it lies beyond the
+		//edge opposite corner, and the walk from corner to the point crosses that edge first:
+		Pnt corner = triangle.isOutside(point);
+		if(corner != null){
+			trilation.hintLocate(triangle);
+			Set<Pnt> segment = DelaunayUtils.obtainCrossedSegment(corner, point, trilation);
+			if(segment != null) encroached.add(segment);
+		}
+		return point;
+	}
+
+	/**
+	 * Near small input angles, Ruppert's algorithm splits segments over and over. Points
+	 * and circumcenters computed at a scale of a few ulps are too far off for the
+	 * triangulation, so the splitting stops at about 2^20 ulps of the coordinates.
+	 * @return false iff segment is too short to split
+	 */
+	static boolean isSplittable(Set<Pnt> segment){
+		Iterator<Pnt> it = segment.iterator();
+		Pnt a = it.next(), b = it.next();
+		double dx = a.coord(0) - b.coord(0), dy = a.coord(1) - b.coord(1);
+		double size = Math.max(Math.max(Math.abs(a.coord(0)), Math.abs(a.coord(1))),
+				Math.max(Math.abs(b.coord(0)), Math.abs(b.coord(1))));
+		return Math.sqrt(dx*dx + dy*dy) > Math.scalb(Math.ulp(size), 20);
+	}
+	
+	/**
+	 * A bad triangle in the queue, with its vertices at the time it was queued.
+	 */
+	private static class BadTriangle implements Comparable<BadTriangle>{
+		private final Triangle triangle;
+		private final Pnt a, b, c;
+		private final double priority;
+		
+		BadTriangle(Triangle triangle, double priority){
+			this.triangle = triangle;
+			this.a = triangle.get(0);
+			this.b = triangle.get(1);
+			this.c = triangle.get(2);
+			this.priority = priority;
+		}
+		
+		/**
+		 * @return true iff the triangle is still in trilation, with the same vertices
+		 * (otherwise it was queued again when it was flipped)
+		 */
+		boolean isCurrent(Triangulation trilation){
+			return triangle.get(0) == a && triangle.get(1) == b && triangle.get(2) == c && trilation.contains(triangle);
+		}
+		
+		@Override
+		public int compareTo(BadTriangle other){
+			return Double.compare(other.priority, priority); //Worst first
+		}
+	}
+
 }
@@ -0,0 +1,66 @@
+package triangulation.delaunay.refineAlgorithms;
+
+import triangulation.Pnt;
+import triangulation.Triangle;
+
+/**
+ * The available ways of choosing the point that refinement inserts for a bad triangle.
+ *
+ * Circumcenter: Ruppert's choice.
+ * OffCenter: Ungor's off-center. If the circumcenter is far from the shortest edge, take
+ * the point on the bisector of that edge that makes a triangle with it that just meets the
+ * angle bound: its angle at the new point is about minAngle. This makes fewer points.
+ */
+public enum SteinerPoints {
+	Circumcenter("Circumcenter"),
+	OffCenter("Off-center");
+
+	private String name;
+
+	private SteinerPoints(String name){
+		this.name = name;
+	}
+
+	public String toString(){
+		return name;
+	}
+
+	/**
+	 * @param triangle a bad triangle
+	 * @param minAngle the smallest angle allowed (radians)
+	 * @return the point to insert for triangle; it lies in the circumcircle of triangle
+	 */
+	public Pnt place(Triangle triangle, double minAngle){
+		Pnt center = triangle.getCircumcenter();
+		if(this == OffCenter){
+			return offCenter(triangle, center, minAngle);
+		}
+		return center;
+	}
+
+	/**
+	 * The off-center lies on the segment from the midpoint m of the shortest edge pq to
+	 * the circumcenter, at 0.95 times the distance at which pq would be seen under minAngle
+	 * (|pq|/2 cot(minAngle/2)), so the new triangle stays just inside the bound.
+	 * @return the off-center, or center if that is closer to m
+	 */
+	private static Pnt offCenter(Triangle triangle, Pnt center, double minAngle){
+		Pnt p = null, q = null;
+		double shortest = Double.POSITIVE_INFINITY;
+		for(int i = 0; i < 3; i++){
+			Pnt a = triangle.get(i), b = triangle.get((i+1)%3);
+			double dx = a.coord(0) - b.coord(0), dy = a.coord(1) - b.coord(1);
+			if(dx*dx + dy*dy < shortest){
+				shortest = dx*dx + dy*dy;
+				p = a;
+				q = b;
+			}
+		}
+		double mx = (p.coord(0) + q.coord(0))/2, my = (p.coord(1) + q.coord(1))/2;
+		double dx = center.coord(0) - mx, dy = center.coord(1) - my;
+		double toCenter = Math.sqrt(dx*dx + dy*dy);
+		double offset = 0.475 * Math.sqrt(shortest) / Math.tan(minAngle/2);
+		if(!(offset < toCenter)) return center;
+		return new Pnt(mx + dx*offset/toCenter, my + dy*offset/toCenter);
+	}
+}